@@ -0,0 +1,114 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * Key with its timestamped {@link Value}, which may be a tombstone.
+ * Serialized as {@code [key length][key][value length][value]}.
+ */
+public final class Cell implements Comparable<Cell> {
+
+    /**
+     * Orders cells by key, the newest cell goes first among cells with the same key.
+     */
+    public static final Comparator<Cell> NEWEST_FIRST = (a, b) -> {
+        final int byKey = a.key.compareTo(b.key);
+        if (byKey != 0) {
+            return byKey;
+        }
+        final int byTimestamp = Long.compare(b.value.getTimestamp(), a.value.getTimestamp());
+        if (byTimestamp != 0) {
+            return byTimestamp;
+        }
+        return Boolean.compare(b.value.isTombstone(), a.value.isTombstone());
+    };
+
+    /**
+     * Upper bound of serialized key and value, so the corrupted length read from the peer or from the log
+     * fails the read instead of the huge allocation.
+     */
+    private static final int MAX_LENGTH = 64 * 1024 * 1024;
+
+    private final ByteBuffer key;
+    private final Value value;
+
+    private Cell(@NotNull final ByteBuffer key, @NotNull final Value value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    public static Cell of(@NotNull final ByteBuffer key, @NotNull final Value value) {
+        return new Cell(key, value);
+    }
+
+    public ByteBuffer getKey() {
+        return key.asReadOnlyBuffer();
+    }
+
+    public Value getValue() {
+        return value;
+    }
+
+    public Record toRecord() {
+        return Record.of(key, value.getData());
+    }
+
+    /**
+     * Method serializes cell.
+     *
+     * @return serialized cell
+     */
+    public byte[] toBytes() {
+        final ByteBuffer duplicate = key.duplicate();
+        final byte[] serializedValue = value.toBytes();
+        final byte[] bytes = new byte[Integer.BYTES * 2 + duplicate.remaining() + serializedValue.length];
+        ByteBuffer.wrap(bytes)
+                .putInt(duplicate.remaining())
+                .put(duplicate)
+                .putInt(serializedValue.length)
+                .put(serializedValue);
+        return bytes;
+    }
+
+    /**
+     * Method reads next serialized cell from the stream.
+     *
+     * @param input stream of serialized cells
+     * @return cell or null if the stream is over
+     * @throws IOException if stream is broken or the length is out of bounds
+     */
+    @Nullable
+    public static Cell read(@NotNull final DataInputStream input) throws IOException {
+        final int keyLength;
+        try {
+            keyLength = input.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        final byte[] key = new byte[checkLength(keyLength, 0)];
+        input.readFully(key);
+        final byte[] value = new byte[checkLength(input.readInt(), Value.HEADER_SIZE)];
+        input.readFully(value);
+        return new Cell(ByteBuffer.wrap(key), Value.fromBytes(value));
+    }
+
+    private static int checkLength(final int length, final int minLength) throws IOException {
+        if (length < minLength || length > MAX_LENGTH) {
+            throw new IOException("Wrong length " + length + " of serialized cell");
+        }
+        return length;
+    }
+
+    @Override
+    public int compareTo(@NotNull final Cell other) {
+        return key.compareTo(other.key);
+    }
+}
@@ -0,0 +1,54 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+
+/**
+ * Iterator holding resources, e.g. native storage iterator or socket,
+ * which should be released as soon as the iteration is over or abandoned.
+ * Close should not be called concurrently with the iteration.
+ */
+public interface CloseableIterator<E> extends Iterator<E>, Closeable {
+
+    @Override
+    void close();
+
+    /**
+     * Method attaches resource to the iterator, e.g. to the transformed closeable iterator.
+     *
+     * @param iterator iterator
+     * @param resource resource released on close
+     * @return closeable iterator
+     */
+    static <E> CloseableIterator<E> of(@NotNull final Iterator<E> iterator, @NotNull final Closeable resource) {
+        return new CloseableIterator<>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+                try {
+                    resource.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Can't release iterator", e);
+                }
+            }
+        };
+    }
+
+    static <E> CloseableIterator<E> empty() {
+        return of(Iters.empty(), () -> {
+        });
+    }
+}
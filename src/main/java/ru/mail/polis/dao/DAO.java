@@ -23,8 +23,14 @@ import ru.mail.polis.Record;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.function.Consumer;
 
 /**
  * Storage interface.
@@ -65,6 +71,35 @@ public interface DAO extends Closeable {
         return Iters.until(iterator(from), bound);
     }
 
+    /**
+     * Provides iterator (possibly empty) over {@link Cell}s including tombstones starting at "from" key (inclusive)
+     * until given "to" key (exclusive) in <b>ascending</b> order according to {@link Cell#compareTo(Cell)}.
+     * The iterator holds storage resources until it is closed.
+     */
+    @NotNull
+    CloseableIterator<Cell> cellRange(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException;
+
+    /**
+     * Tells whether the storage opens consistent views by {@link #snapshot()}.
+     */
+    default boolean supportsSnapshots() {
+        return false;
+    }
+
+    /**
+     * Opens the consistent view of the storage: writes made after it are not seen through the view.
+     * The view holds storage resources until it and all iterators obtained from it are closed.
+     * Callers check {@link #supportsSnapshots()} first.
+     *
+     * @throws IOException if the storage has no snapshots or can't open the view
+     */
+    @NotNull
+    default Snapshot snapshot() throws IOException {
+        throw new IOException("Snapshots are not supported");
+    }
+
     /**
      * Obtains {@link Record} corresponding to given key.
      *
@@ -85,6 +120,41 @@ public interface DAO extends Closeable {
         }
     }
 
+    /**
+     * Obtains timestamped {@link Value} corresponding to given key, which may be a tombstone.
+     *
+     * @throws NoSuchElementException if the key was never written
+     */
+    @NotNull
+    Value getValue(@NotNull ByteBuffer key) throws IOException, NoSuchElementException;
+
+    /**
+     * Obtains timestamped {@link Value} like {@link #getValue(ByteBuffer)}, but answers null
+     * instead of throwing if the key was never written.
+     */
+    @Nullable
+    default Value findValue(@NotNull ByteBuffer key) throws IOException {
+        try {
+            return getValue(key);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Tries to find {@link Value} like {@link #findValue(ByteBuffer)} without blocking on disk reads,
+     * so the caller may answer right on the network thread.
+     *
+     * @param key    key
+     * @param answer receives the value, or null if the key was never written
+     * @return false without calling the answer if the lookup needs disk reads
+     */
+    default boolean findValueInMemory(
+            @NotNull ByteBuffer key,
+            @NotNull Consumer<Value> answer) throws IOException {
+        return false;
+    }
+
     /**
      * Inserts or updates value by given key.
      */
@@ -92,15 +162,115 @@ public interface DAO extends Closeable {
             @NotNull ByteBuffer key,
             @NotNull ByteBuffer value) throws IOException;
 
+    /**
+     * Inserts or updates value by given key with given write timestamp.
+     * The write is skipped if the stored value of the key is newer, so the last write wins
+     * whatever order writes come in.
+     */
+    void upsert(
+            @NotNull ByteBuffer key,
+            @NotNull ByteBuffer value,
+            long timestamp) throws IOException;
+
+    /**
+     * Inserts or updates value by given key with given write timestamp and durability.
+     * Storages without the write-ahead log ignore the durability.
+     */
+    default void upsert(
+            @NotNull ByteBuffer key,
+            @NotNull ByteBuffer value,
+            long timestamp,
+            @NotNull Durability durability) throws IOException {
+        upsert(key, value, timestamp);
+    }
+
     /**
      * Removes value by given key.
      */
     void remove(@NotNull ByteBuffer key) throws IOException;
 
+    /**
+     * Removes value by given key leaving a tombstone with given timestamp.
+     * The tombstone is skipped if the stored value of the key is newer.
+     */
+    void remove(
+            @NotNull ByteBuffer key,
+            long timestamp) throws IOException;
+
+    /**
+     * Removes value by given key leaving a tombstone with given timestamp and durability.
+     * Storages without the write-ahead log ignore the durability.
+     */
+    default void remove(
+            @NotNull ByteBuffer key,
+            long timestamp,
+            @NotNull Durability durability) throws IOException {
+        remove(key, timestamp);
+    }
+
+    /**
+     * Obtains {@link Value}s including tombstones of the given keys at once.
+     * Keys which were never written are absent from the result.
+     */
+    @NotNull
+    default Map<ByteBuffer, Value> getAll(@NotNull Collection<ByteBuffer> keys) throws IOException {
+        final Map<ByteBuffer, Value> values = new HashMap<>();
+        for (final ByteBuffer key : keys) {
+            try {
+                values.put(key, getValue(key));
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Writes {@link Cell}s keeping their timestamps, tombstones remove the keys.
+     * Cells of the same key are applied in the given order, cells older than stored values are skipped.
+     * Implementations may apply all cells atomically.
+     */
+    default void apply(@NotNull List<Cell> cells) throws IOException {
+        for (final Cell cell : cells) {
+            final Value value = cell.getValue();
+            if (value.isTombstone()) {
+                remove(cell.getKey(), value.getTimestamp());
+            } else {
+                upsert(cell.getKey(), value.getData(), value.getTimestamp());
+            }
+        }
+    }
+
+    /**
+     * Reports approximate off-heap memory taken by the storage in bytes by kind.
+     */
+    @NotNull
+    default Map<String, Long> memoryUsage() {
+        return Collections.emptyMap();
+    }
+
     /**
      * Performs compaction.
      */
     default void compact() throws IOException {
         // Implement me when you get to stage 3
     }
+
+    /**
+     * Consistent view of the storage opened by {@link #snapshot()}.
+     */
+    interface Snapshot extends Closeable {
+
+        /**
+         * Provides iterator over {@link Cell}s including tombstones like {@link DAO#cellRange(ByteBuffer, ByteBuffer)}
+         * as of the moment the view was opened. The iterator may outlive the view.
+         */
+        @NotNull
+        CloseableIterator<Cell> cellRange(
+                @NotNull ByteBuffer from,
+                @Nullable ByteBuffer to) throws IOException;
+
+        @Override
+        void close();
+    }
 }
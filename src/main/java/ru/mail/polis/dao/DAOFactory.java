@@ -17,7 +17,9 @@
 package ru.mail.polis.dao;
 
 import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.dao.physhock.DAOConfig;
 import ru.mail.polis.dao.physhock.DAOImpl;
+import ru.mail.polis.dao.physhock.LsmDAO;
 
 import java.io.File;
 import java.io.IOException;
@@ -29,19 +31,35 @@ import java.io.IOException;
  */
 public final class DAOFactory {
     static final long MAX_HEAP = 256 * 1024 * 1024;
+    private static final String PROFILE_PROPERTY = "dao.profile";
+    private static final String ENGINE_PROPERTY = "dao.engine";
 
     private DAOFactory() {
         // Not instantiatable
     }
 
     /**
-     * Construct a {@link DAO} instance.
+     * Construct a {@link DAO} instance tuned by the profile chosen by {@code dao.profile} system property:
+     * {@code default}, {@code read-heavy} or {@code write-heavy}.
      *
      * @param data local disk folder to persist the data to
      * @return a storage instance
      */
     @NotNull
     public static DAO create(@NotNull final File data) throws IOException {
+        return create(data, DAOConfig.byName(System.getProperty(PROFILE_PROPERTY, "default")));
+    }
+
+    /**
+     * Construct a {@link DAO} instance on the engine chosen by {@code dao.engine} system property:
+     * {@code rocksdb} for {@link DAOImpl} or {@code lsm} for {@link LsmDAO}.
+     *
+     * @param data   local disk folder to persist the data to
+     * @param config storage tuning profile
+     * @return a storage instance
+     */
+    @NotNull
+    public static DAO create(@NotNull final File data, @NotNull final DAOConfig config) throws IOException {
         if (Runtime.getRuntime().maxMemory() > MAX_HEAP) {
             throw new IllegalStateException("The heap is too big. Consider setting Xmx.");
         }
@@ -54,6 +72,14 @@ public final class DAOFactory {
             throw new IllegalArgumentException("Path is not a directory: " + data);
         }
 
-        return new DAOImpl(data);
+        final String engine = System.getProperty(ENGINE_PROPERTY, "rocksdb");
+        switch (engine) {
+            case "rocksdb":
+                return new DAOImpl(data, config);
+            case "lsm":
+                return new LsmDAO(data, config);
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
     }
 }
@@ -0,0 +1,48 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Durability of the write chosen by the client.
+ * {@link #SYNC} returns once the write-ahead log is synced to the disk, {@link #ASYNC} once it is written
+ * to the OS, so the write survives the crash of the process but not of the machine.
+ * {@link #NONE} skips the log, so unflushed writes are lost on the crash, it suits caches and data
+ * which can be loaded again.
+ */
+public enum Durability {
+    SYNC("sync"),
+    ASYNC("async"),
+    NONE("none");
+
+    private final String name;
+
+    Durability(@NotNull final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Method parses the mode passed by the client.
+     *
+     * @param name name of the mode or null for the default one
+     * @return mode, {@link #ASYNC} by default
+     * @throws IllegalArgumentException if the mode is unknown
+     */
+    @NotNull
+    public static Durability parse(@Nullable final String name) {
+        if (name == null) {
+            return ASYNC;
+        }
+        for (final Durability durability : values()) {
+            if (durability.name.equals(name)) {
+                return durability;
+            }
+        }
+        throw new IllegalArgumentException("Unknown durability: " + name);
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+}
@@ -16,8 +16,11 @@
 
 package ru.mail.polis.dao;
 
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.function.Function;
 
 import org.jetbrains.annotations.NotNull;
@@ -68,6 +71,16 @@ public final class Iters {
         return new CollapseEqualsIterator<>(iter);
     }
 
+    /**
+     * Merges sorted iterators into one sorted iterator.
+     * Holds only one current element per each source.
+     */
+    public static <E> Iterator<E> merge(
+            @NotNull final Collection<? extends Iterator<E>> iters,
+            @NotNull final Comparator<? super E> comparator) {
+        return new MergingIterator<>(iters, comparator);
+    }
+
     private static class UntilIterator<E extends Comparable<E>> implements Iterator<E> {
         private final Iterator<E> iter;
         private final E until;
@@ -140,4 +153,49 @@ public final class Iters {
             return result;
         }
     }
+
+    private static class MergingIterator<E> implements Iterator<E> {
+        private final PriorityQueue<Source<E>> heap;
+
+        MergingIterator(
+                @NotNull final Collection<? extends Iterator<E>> iters,
+                @NotNull final Comparator<? super E> comparator) {
+            this.heap = new PriorityQueue<>(
+                    Math.max(1, iters.size()),
+                    (a, b) -> comparator.compare(a.current, b.current));
+            for (final Iterator<E> iter : iters) {
+                if (iter.hasNext()) {
+                    heap.add(new Source<>(iter));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heap.isEmpty();
+        }
+
+        @Override
+        public E next() {
+            assert hasNext();
+
+            final Source<E> source = heap.remove();
+            final E result = source.current;
+            if (source.iter.hasNext()) {
+                source.current = source.iter.next();
+                heap.add(source);
+            }
+            return result;
+        }
+    }
+
+    private static class Source<E> {
+        private final Iterator<E> iter;
+        private E current;
+
+        Source(@NotNull final Iterator<E> iter) {
+            this.iter = iter;
+            this.current = iter.next();
+        }
+    }
 }
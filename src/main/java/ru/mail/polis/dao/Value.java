@@ -0,0 +1,115 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stored value with the write timestamp, which may be a tombstone.
+ * Serialized as {@code [timestamp][tombstone flag][data]}.
+ */
+public final class Value {
+
+    /**
+     * Size of the timestamp and the flag preceding the data, storages may put their own flags there.
+     */
+    public static final int HEADER_SIZE = Long.BYTES + 1;
+
+    private static final byte PRESENT = 0;
+    private static final byte TOMBSTONE = 1;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final long timestamp;
+    private final boolean tombstone;
+    private final ByteBuffer data;
+
+    private Value(final long timestamp, final boolean tombstone, @NotNull final ByteBuffer data) {
+        this.timestamp = timestamp;
+        this.tombstone = tombstone;
+        this.data = data;
+    }
+
+    public static Value present(@NotNull final ByteBuffer data, final long timestamp) {
+        return new Value(timestamp, false, data);
+    }
+
+    public static Value tombstone(final long timestamp) {
+        return new Value(timestamp, true, EMPTY);
+    }
+
+    /**
+     * Method restores value from its serialized form.
+     *
+     * @param bytes serialized value
+     * @return value which data is a view of given array
+     */
+    public static Value fromBytes(@NotNull final byte[] bytes) {
+        return fromBuffer(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Method restores value from its serialized form without copying, e.g. from the mapped file.
+     *
+     * @param buffer serialized value between position and limit
+     * @return value which data is a view of given buffer
+     */
+    public static Value fromBuffer(@NotNull final ByteBuffer buffer) {
+        final ByteBuffer duplicate = buffer.duplicate();
+        final long timestamp = duplicate.getLong();
+        final boolean tombstone = duplicate.get() == TOMBSTONE;
+        return new Value(timestamp, tombstone, duplicate.slice());
+    }
+
+    /**
+     * Method serializes value.
+     *
+     * @return serialized value
+     */
+    public byte[] toBytes() {
+        final ByteBuffer duplicate = data.duplicate();
+        final byte[] bytes = new byte[HEADER_SIZE + duplicate.remaining()];
+        ByteBuffer.wrap(bytes)
+                .putLong(timestamp)
+                .put(tombstone ? TOMBSTONE : PRESENT)
+                .put(duplicate);
+        return bytes;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean isTombstone() {
+        return tombstone;
+    }
+
+    /**
+     * Method checks tombstone flag without parsing the whole value.
+     *
+     * @param bytes serialized value
+     * @return true if value is a tombstone, false if the array is too short to be a serialized value
+     */
+    public static boolean isTombstone(@NotNull final byte[] bytes) {
+        return bytes.length >= HEADER_SIZE && bytes[Long.BYTES] == TOMBSTONE;
+    }
+
+    public ByteBuffer getData() {
+        return data.asReadOnlyBuffer();
+    }
+
+    /**
+     * Method returns data as an array to be sent as is, so the array must not be modified.
+     * Data spanning the whole backing array, like a row cache hit, is returned without copying.
+     *
+     * @return data
+     */
+    public byte[] getDataArray() {
+        if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0
+                && data.remaining() == data.array().length) {
+            return data.array();
+        }
+        final byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+}
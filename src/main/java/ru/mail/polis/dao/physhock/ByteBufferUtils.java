@@ -9,32 +9,41 @@ public final class ByteBufferUtils {
     }
 
     /**
-     * Method shifts byte array then wrap it to the byte buffer.
+     * Method shifts byte array in place then wrap it to the byte buffer.
+     * Array is not copied, so it should be owned by the caller, e.g. fresh key from RocksDB.
      *
      * @param byteArray array to shift
      * @return shifted array wrapped into buffer
      */
     public static ByteBuffer shiftByteArray(@NotNull final byte[] byteArray) {
-        final byte[] body = byteArray.clone();
-
-        for (int i = 0; i < body.length; i++) {
-            body[i] += Byte.MIN_VALUE;
+        for (int i = 0; i < byteArray.length; i++) {
+            byteArray[i] += Byte.MIN_VALUE;
         }
 
-        return ByteBuffer.wrap(body);
+        return ByteBuffer.wrap(byteArray);
     }
 
     /**
      * Method restore shifted byte array from ByteBuffer.
+     * Bytes are shifted while being copied, so it takes the only allocation and the only pass.
      *
      * @param buffer modified array wrapped into buffer
      * @return restored byte array
      */
     public static byte[] restoreByteArray(@NotNull final ByteBuffer buffer) {
-        final byte[] body = getByteArray(buffer);
+        final byte[] body = new byte[buffer.remaining()];
+        final int position = buffer.position();
 
-        for (int i = 0; i < body.length; i++) {
-            body[i] -= Byte.MIN_VALUE;
+        if (buffer.hasArray()) {
+            final byte[] array = buffer.array();
+            final int offset = buffer.arrayOffset() + position;
+            for (int i = 0; i < body.length; i++) {
+                body[i] = (byte) (array[offset + i] - Byte.MIN_VALUE);
+            }
+        } else {
+            for (int i = 0; i < body.length; i++) {
+                body[i] = (byte) (buffer.get(position + i) - Byte.MIN_VALUE);
+            }
         }
         return body;
     }
@@ -0,0 +1,359 @@
+package ru.mail.polis.dao.physhock;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Tuning profile of the storage. {@link LsmDAO} takes only the write buffer and the block size,
+ * the rest tunes RocksDB of {@link DAOImpl}.
+ * Block cache is shared by data, index and filter blocks of all SST files.
+ * Memtables, the row cache and the miss cache are carved out of it, so cache size is the memory budget
+ * of the whole storage. Capacity of the block cache is strict, memtables are flushed when they exceed their part.
+ */
+public final class DAOConfig {
+
+    private static final long MB = 1024 * 1024;
+    private static final long KB = 1024;
+
+    public enum CacheType {
+        LRU,
+        CLOCK
+    }
+
+    private final CacheType cacheType;
+    private final long cacheSize;
+    private final int bloomBitsPerKey;
+    private final boolean cacheIndexAndFilterBlocks;
+    private final boolean partitionFilters;
+    private final long blockSize;
+    private final long writeBufferSize;
+    private final int maxWriteBufferNumber;
+    private final long writeBufferBudget;
+    private final long groupCommitBytes;
+    private final long groupCommitWindowMicros;
+    private final long rowCacheSize;
+    private final int missCacheEntries;
+    private final int valueLogThreshold;
+    private final long valueLogSegmentSize;
+
+    private DAOConfig(@NotNull final Builder builder) {
+        this.cacheType = builder.cacheType;
+        this.cacheSize = builder.cacheSize;
+        this.bloomBitsPerKey = builder.bloomBitsPerKey;
+        this.cacheIndexAndFilterBlocks = builder.cacheIndexAndFilterBlocks;
+        this.partitionFilters = builder.partitionFilters;
+        this.blockSize = builder.blockSize;
+        this.writeBufferSize = builder.writeBufferSize;
+        this.maxWriteBufferNumber = builder.maxWriteBufferNumber;
+        this.writeBufferBudget = builder.writeBufferBudget;
+        this.groupCommitBytes = builder.groupCommitBytes;
+        this.groupCommitWindowMicros = builder.groupCommitWindowMicros;
+        this.rowCacheSize = builder.rowCacheSize;
+        this.missCacheEntries = builder.missCacheEntries;
+        this.valueLogThreshold = builder.valueLogThreshold;
+        this.valueLogSegmentSize = builder.valueLogSegmentSize;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Balanced profile: bloom filters cut disk reads for absent keys,
+     * index and filter blocks compete for the cache with data blocks.
+     */
+    public static DAOConfig defaults() {
+        return builder().build();
+    }
+
+    /**
+     * Profile for point reads: bigger caches and partitioned filters,
+     * so only the top level index of huge files stays in memory.
+     */
+    public static DAOConfig readHeavy() {
+        return builder()
+                .cacheSize(128 * MB)
+                .rowCacheSize(64 * MB)
+                .partitionFilters(true)
+                .writeBufferSize(8 * MB)
+                .writeBufferBudget(16 * MB)
+                .build();
+    }
+
+    /**
+     * Profile for write bursts: most of the budget goes to memtables rather than to data blocks,
+     * bigger blocks keep index smaller, batches of concurrent writes are bigger.
+     * Row cache is off, since writes would keep invalidating it.
+     * Values from 4KB go to the value log, so compactions rewrite only pointers to them.
+     */
+    public static DAOConfig writeHeavy() {
+        return builder()
+                .cacheType(CacheType.CLOCK)
+                .cacheSize(96 * MB)
+                .blockSize(16 * KB)
+                .writeBufferSize(32 * MB)
+                .maxWriteBufferNumber(4)
+                .writeBufferBudget(64 * MB)
+                .groupCommitBytes(4 * MB)
+                .rowCacheSize(0)
+                .valueLogThreshold(4 * (int) KB)
+                .build();
+    }
+
+    /**
+     * Method returns the profile by its name.
+     *
+     * @param name {@code default}, {@code read-heavy} or {@code write-heavy}
+     * @return profile
+     */
+    public static DAOConfig byName(@NotNull final String name) {
+        switch (name) {
+            case "default":
+                return defaults();
+            case "read-heavy":
+                return readHeavy();
+            case "write-heavy":
+                return writeHeavy();
+            default:
+                throw new IllegalArgumentException("Unknown DAO profile: " + name);
+        }
+    }
+
+    public CacheType getCacheType() {
+        return cacheType;
+    }
+
+    /**
+     * Size of the cache, which is the memory budget for blocks, memtables, the row cache and the miss cache.
+     */
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Part of the budget left to blocks by memtables, the row cache and the miss cache.
+     */
+    public long getBlockCacheSize() {
+        return blockCacheSize(this);
+    }
+
+    /**
+     * Bits per key of the bloom filter, zero means no filter.
+     */
+    public int getBloomBitsPerKey() {
+        return bloomBitsPerKey;
+    }
+
+    public boolean isCacheIndexAndFilterBlocks() {
+        return cacheIndexAndFilterBlocks;
+    }
+
+    public boolean isPartitionFilters() {
+        return partitionFilters;
+    }
+
+    public long getBlockSize() {
+        return blockSize;
+    }
+
+    public long getWriteBufferSize() {
+        return writeBufferSize;
+    }
+
+    public int getMaxWriteBufferNumber() {
+        return maxWriteBufferNumber;
+    }
+
+    /**
+     * Part of the budget memtables may take before they are flushed, zero means memtables are not charged.
+     */
+    public long getWriteBufferBudget() {
+        return writeBufferBudget;
+    }
+
+    /**
+     * Size of keys and values committed by one write batch.
+     */
+    public long getGroupCommitBytes() {
+        return groupCommitBytes;
+    }
+
+    /**
+     * Time the committer waits for concurrent writes, zero means commit right away.
+     * Timed parking is as coarse as the OS timer, so waiting pays off only for slow synchronous writes.
+     */
+    public long getGroupCommitWindowMicros() {
+        return groupCommitWindowMicros;
+    }
+
+    /**
+     * Size of the off-heap cache of hot values in front of the storage, zero means no cache.
+     * It is taken from the storage budget.
+     */
+    public long getRowCacheSize() {
+        return rowCacheSize;
+    }
+
+    /**
+     * Number of recent lookups of absent keys answered without the storage, zero means no cache.
+     */
+    public int getMissCacheEntries() {
+        return missCacheEntries;
+    }
+
+    /**
+     * Size of the value to be moved to the value log of {@link DAOImpl}, zero means values stay in RocksDB.
+     */
+    public int getValueLogThreshold() {
+        return valueLogThreshold;
+    }
+
+    public long getValueLogSegmentSize() {
+        return valueLogSegmentSize;
+    }
+
+    private static long blockCacheSize(@NotNull final DAOConfig config) {
+        return config.cacheSize - config.writeBufferBudget - config.rowCacheSize
+                - (config.missCacheEntries == 0 ? 0 : MissCache.sizeOf(config.missCacheEntries));
+    }
+
+    public static final class Builder {
+        private CacheType cacheType = CacheType.LRU;
+        private long cacheSize = 64 * MB;
+        private int bloomBitsPerKey = 10;
+        private boolean cacheIndexAndFilterBlocks = true;
+        private boolean partitionFilters;
+        private long blockSize = 4 * KB;
+        private long writeBufferSize = 16 * MB;
+        private int maxWriteBufferNumber = 2;
+        private long writeBufferBudget = 32 * MB;
+        private long groupCommitBytes = MB;
+        private long groupCommitWindowMicros;
+        private long rowCacheSize = 16 * MB;
+        private int missCacheEntries = 64 * 1024;
+        private int valueLogThreshold;
+        private long valueLogSegmentSize = 64 * MB;
+
+        private Builder() {
+        }
+
+        public Builder cacheType(@NotNull final CacheType cacheType) {
+            this.cacheType = cacheType;
+            return this;
+        }
+
+        public Builder cacheSize(final long cacheSize) {
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        public Builder bloomBitsPerKey(final int bloomBitsPerKey) {
+            this.bloomBitsPerKey = bloomBitsPerKey;
+            return this;
+        }
+
+        public Builder cacheIndexAndFilterBlocks(final boolean cacheIndexAndFilterBlocks) {
+            this.cacheIndexAndFilterBlocks = cacheIndexAndFilterBlocks;
+            return this;
+        }
+
+        public Builder partitionFilters(final boolean partitionFilters) {
+            this.partitionFilters = partitionFilters;
+            return this;
+        }
+
+        public Builder blockSize(final long blockSize) {
+            this.blockSize = blockSize;
+            return this;
+        }
+
+        public Builder writeBufferSize(final long writeBufferSize) {
+            this.writeBufferSize = writeBufferSize;
+            return this;
+        }
+
+        public Builder maxWriteBufferNumber(final int maxWriteBufferNumber) {
+            this.maxWriteBufferNumber = maxWriteBufferNumber;
+            return this;
+        }
+
+        public Builder writeBufferBudget(final long writeBufferBudget) {
+            this.writeBufferBudget = writeBufferBudget;
+            return this;
+        }
+
+        public Builder groupCommitBytes(final long groupCommitBytes) {
+            this.groupCommitBytes = groupCommitBytes;
+            return this;
+        }
+
+        public Builder groupCommitWindowMicros(final long groupCommitWindowMicros) {
+            this.groupCommitWindowMicros = groupCommitWindowMicros;
+            return this;
+        }
+
+        public Builder rowCacheSize(final long rowCacheSize) {
+            this.rowCacheSize = rowCacheSize;
+            return this;
+        }
+
+        public Builder missCacheEntries(final int missCacheEntries) {
+            this.missCacheEntries = missCacheEntries;
+            return this;
+        }
+
+        public Builder valueLogThreshold(final int valueLogThreshold) {
+            this.valueLogThreshold = valueLogThreshold;
+            return this;
+        }
+
+        public Builder valueLogSegmentSize(final long valueLogSegmentSize) {
+            this.valueLogSegmentSize = valueLogSegmentSize;
+            return this;
+        }
+
+        /**
+         * Method validates the profile.
+         *
+         * @return profile
+         */
+        public DAOConfig build() {
+            if (cacheSize <= 0 || blockSize <= 0 || writeBufferSize <= 0 || maxWriteBufferNumber <= 0
+                    || groupCommitBytes <= 0) {
+                throw new IllegalArgumentException("Sizes should be positive");
+            }
+            if (groupCommitWindowMicros < 0) {
+                throw new IllegalArgumentException("Group commit window should not be negative");
+            }
+            if (bloomBitsPerKey < 0) {
+                throw new IllegalArgumentException("Bloom bits per key should not be negative");
+            }
+            if (writeBufferBudget < 0) {
+                throw new IllegalArgumentException("Write buffer budget should not be negative");
+            }
+            if (writeBufferBudget > 0 && writeBufferSize > writeBufferBudget) {
+                throw new IllegalArgumentException("Write buffer should fit into the write buffer budget");
+            }
+            if (missCacheEntries < 0) {
+                throw new IllegalArgumentException("Miss cache entries should not be negative");
+            }
+            if (rowCacheSize != 0 && rowCacheSize < MB) {
+                throw new IllegalArgumentException("Row cache should be either off or at least 1MB");
+            }
+            if (valueLogThreshold < 0) {
+                throw new IllegalArgumentException("Value log threshold should not be negative");
+            }
+            if (valueLogSegmentSize < MB) {
+                throw new IllegalArgumentException("Value log segment should be at least 1MB");
+            }
+            if (partitionFilters && bloomBitsPerKey == 0) {
+                throw new IllegalArgumentException("Partitioned filters need bloom filter");
+            }
+            final DAOConfig config = new DAOConfig(this);
+            if (blockCacheSize(config) <= 0) {
+                throw new IllegalArgumentException("Write buffer budget, row cache and miss cache "
+                        + "should leave room for blocks in the cache");
+            }
+            return config;
+        }
+    }
+}
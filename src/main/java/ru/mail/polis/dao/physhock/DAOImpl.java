@@ -1,111 +1,762 @@
 package ru.mail.polis.dao.physhock;
 
+import com.google.common.collect.Iterators;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
 import org.rocksdb.BuiltinComparator;
+import org.rocksdb.Cache;
+import org.rocksdb.ClockCache;
+import org.rocksdb.Filter;
+import org.rocksdb.IndexType;
+import org.rocksdb.LRUCache;
+import org.rocksdb.MemoryUsageType;
+import org.rocksdb.MemoryUtil;
 import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.ReadTier;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
+import org.rocksdb.Slice;
+import org.rocksdb.Status;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteBufferManager;
+import org.rocksdb.WriteOptions;
 import ru.mail.polis.Record;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.CloseableIterator;
 import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.Durability;
+import ru.mail.polis.dao.Value;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
 
 public class DAOImpl implements DAO {
 
     private static final String ROCK = "RocksDB troubles";
+    private static final String NOT_FOUND = "This is not the data you are looking for";
+    private static final long TOMBSTONE_GRACE_PERIOD = TimeUnit.DAYS.toMillis(1);
+    private static final long SCAN_READAHEAD = 1024 * 1024;
+    private static final String VALUE_LOG = "vlog";
+    private static final long MIN_CACHE_SHARD = 8 * 1024 * 1024;
+    private static final int MAX_CACHE_SHARD_BITS = 6;
+    private static final RocksDBException IN_LOG = new RocksDBException("Value is in the value log",
+            new Status(Status.Code.Incomplete, Status.SubCode.None, null));
+    private final Cache cache;
+    private final Filter filter;
+    private final Cache memtableCache;
+    private final WriteBufferManager writeBufferManager;
+    private final Options options;
+    private final long budget;
     private final RocksDB rocksDB;
+    private final Map<Durability, WriteCombiner> combiners;
+    private final RowCache rowCache;
+    private final MissCache misses;
+    private final ReadOptions reads;
+    private final ReadOptions memoryReads;
+    private final KeyGuards guards = new KeyGuards();
+    private final ValueLog valueLog;
 
     public DAOImpl(final File path) throws IOException {
-        this.rocksDB = createDB(path);
+        this(path, DAOConfig.defaults());
     }
 
-    private RocksDB createDB(final File path) throws IOException {
+    /**
+     * Storage tuned by the profile.
+     *
+     * @param path   data directory
+     * @param config tuning profile
+     * @throws IOException if storage can't be opened, native resources opened so far are released then
+     */
+    public DAOImpl(final File path, final DAOConfig config) throws IOException {
         RocksDB.loadLibrary();
+        this.cache = createCache(config);
+        this.filter = config.getBloomBitsPerKey() == 0 ? null : new BloomFilter(config.getBloomBitsPerKey(), false);
+        // Charging memtables to the strict cache crashes RocksDB once the charge doesn't fit,
+        // so they are charged to the cache of their own, which is bounded by flushes
+        this.memtableCache = config.getWriteBufferBudget() == 0 ? null : new LRUCache(config.getWriteBufferBudget());
+        this.writeBufferManager = memtableCache == null
+                ? null
+                : new WriteBufferManager(config.getWriteBufferBudget(), memtableCache);
+        this.options = new Options()
+                .setCreateIfMissing(true)
+                .setComparator(BuiltinComparator.BYTEWISE_COMPARATOR)
+                .setWriteBufferSize(config.getWriteBufferSize())
+                .setMaxWriteBufferNumber(config.getMaxWriteBufferNumber())
+                .setTableFormatConfig(createTableConfig(config, cache, filter));
+        if (writeBufferManager != null) {
+            options.setWriteBufferManager(writeBufferManager);
+        }
+        this.budget = config.getCacheSize();
+        try {
+            this.rocksDB = createDB(path, options);
+        } catch (IOException | RuntimeException e) {
+            closeOptions();
+            throw e;
+        }
+        this.combiners = createCombiners(rocksDB, config);
+        this.rowCache = config.getRowCacheSize() == 0 ? null : new RowCache(config.getRowCacheSize());
+        this.misses = config.getMissCacheEntries() == 0 ? null : new MissCache(config.getMissCacheEntries());
+        this.reads = new ReadOptions();
+        this.memoryReads = new ReadOptions().setReadTier(ReadTier.BLOCK_CACHE_TIER);
+        try {
+            this.valueLog = ValueLog.open(path.toPath().resolve(VALUE_LOG), rocksDB, guards,
+                    config.getValueLogThreshold(), config.getValueLogSegmentSize());
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Method creates the block cache of strict capacity. Block which doesn't fit into its shard can't be read
+     * at all, so shards are coarser than the default ones, which are only 512KB.
+     */
+    private static Cache createCache(final DAOConfig config) {
+        final long size = config.getBlockCacheSize();
+        final long shards = Math.max(size / MIN_CACHE_SHARD, 1);
+        final int shardBits = Math.min(MAX_CACHE_SHARD_BITS, Long.SIZE - 1 - Long.numberOfLeadingZeros(shards));
+        switch (config.getCacheType()) {
+            case LRU:
+                return new LRUCache(size, shardBits, true);
+            case CLOCK:
+                return new ClockCache(size, shardBits, true);
+            default:
+                throw new IllegalArgumentException("Unknown cache: " + config.getCacheType());
+        }
+    }
+
+    /**
+     * Method builds table format config. Filters are full, not block based,
+     * since only full filters may be partitioned.
+     */
+    private static BlockBasedTableConfig createTableConfig(final DAOConfig config,
+                                                           final Cache cache,
+                                                           final Filter filter) {
+        final BlockBasedTableConfig table = new BlockBasedTableConfig()
+                .setBlockCache(cache)
+                .setBlockSize(config.getBlockSize())
+                .setCacheIndexAndFilterBlocks(config.isCacheIndexAndFilterBlocks())
+                .setCacheIndexAndFilterBlocksWithHighPriority(true)
+                .setPinL0FilterAndIndexBlocksInCache(config.isCacheIndexAndFilterBlocks());
+        if (filter != null) {
+            table.setFilterPolicy(filter);
+        }
+        if (config.isPartitionFilters()) {
+            table.setPartitionFilters(true)
+                    .setIndexType(IndexType.kTwoLevelIndexSearch)
+                    .setPinTopLevelIndexAndFilter(true);
+        }
+        return table;
+    }
+
+    private static RocksDB createDB(final File path, final Options options) throws IOException {
         try {
-            final Options options = new Options()
-                    .setCreateIfMissing(true)
-                    .setComparator(BuiltinComparator.BYTEWISE_COMPARATOR);
             return RocksDB.open(options, path.getAbsolutePath());
         } catch (RocksDBException e) {
             throw new IOException("Cannot create DB", e);
         }
     }
 
+    /**
+     * Method creates the combiner per durability, so writes of different durability are never batched together:
+     * sync writes share one fsync of the log, while the others don't wait for it.
+     */
+    private static Map<Durability, WriteCombiner> createCombiners(final RocksDB rocksDB, final DAOConfig config) {
+        final Map<Durability, WriteCombiner> combiners = new EnumMap<>(Durability.class);
+        for (final Durability durability : Durability.values()) {
+            final WriteOptions options = new WriteOptions()
+                    .setSync(durability == Durability.SYNC)
+                    .setDisableWAL(durability == Durability.NONE);
+            combiners.put(durability, new WriteCombiner(rocksDB, options, config.getGroupCommitBytes(),
+                    config.getGroupCommitWindowMicros(), TimeUnit.MICROSECONDS));
+        }
+        return combiners;
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) {
+        return alive(cells(from, null));
+    }
+
+    /**
+     * Method pushes the upper bound down to RocksDB, so the scan stops at the storage layer.
+     */
+    @NotNull
+    @Override
+    public CloseableIterator<Record> range(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) {
+        if (to != null && from.compareTo(to) > 0) {
+            return CloseableIterator.empty();
+        }
+        return alive(cells(from, to));
+    }
+
     @NotNull
     @Override
-    public Iterator<Record> iterator(@NotNull final ByteBuffer from) {
+    public CloseableIterator<Cell> cellRange(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) {
+        if (to != null && from.compareTo(to) > 0) {
+            return CloseableIterator.empty();
+        }
+        return cells(from, to);
+    }
 
-        final RocksIterator iterator = rocksDB.newIterator();
-        iterator.seek(ByteBufferUtils.restoreByteArray(from));
+    private static CloseableIterator<Record> alive(final CloseableIterator<Cell> cells) {
+        final Iterator<Cell> alive = Iterators.filter(cells, cell -> !cell.getValue().isTombstone());
+        return CloseableIterator.of(Iterators.transform(alive, Cell::toRecord), cells);
+    }
 
-        return new Iterator<>() {
-            @Override
-            public boolean hasNext() {
-                return iterator.isValid();
-            }
+    @Override
+    public boolean supportsSnapshots() {
+        return true;
+    }
 
-            @Override
-            public Record next() {
-                if (!hasNext()) {
-                    throw new NoSuchElementException("Next on empty iterator");
-                }
-                final ByteBuffer key = ByteBufferUtils.shiftByteArray(iterator.key());
-                final ByteBuffer value = ByteBuffer.wrap(iterator.value());
-                final Record record = Record.of(key, value);
-                iterator.next();
-                return record;
-            }
-        };
+    /**
+     * Method opens the consistent view. Segments of the value log are pinned together with the RocksDB snapshot,
+     * so the values the snapshot refers to are not deleted by the log collection while the view is open.
+     */
+    @NotNull
+    @Override
+    public DAO.Snapshot snapshot() {
+        return view();
+    }
+
+    private View view() {
+        return valueLog == null ? new View(null) : valueLog.pin(View::new);
+    }
+
+    /**
+     * Method opens the scan on its own view released as soon as the scan is over,
+     * so the long scan doesn't see writes made after it was opened.
+     *
+     * @param from first key (inclusive)
+     * @param to   upper bound (exclusive) or null for the scan till the end
+     * @return iterator over cells including tombstones
+     */
+    private CloseableIterator<Cell> cells(final ByteBuffer from, @Nullable final ByteBuffer to) {
+        final View view = view();
+        try {
+            return view.cellRange(from, to);
+        } finally {
+            view.close();
+        }
     }
 
     @NotNull
     @Override
     public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        final Value value = getValue(key);
+        if (value.isTombstone()) {
+            throw new NoSuchElementExceptionLite(NOT_FOUND);
+        }
+        return value.getData();
+    }
+
+    @NotNull
+    @Override
+    public Value getValue(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        final Value value = findValue(key);
+        if (value == null) {
+            throw new NoSuchElementExceptionLite(NOT_FOUND);
+        }
+        return value;
+    }
+
+    /**
+     * Method answers recent misses and hot values from caches without crossing JNI.
+     */
+    @Nullable
+    @Override
+    public Value findValue(@NotNull final ByteBuffer key) throws IOException {
+        if (misses != null && misses.contains(key)) {
+            return null;
+        }
+        final Value cached = rowCache == null ? null : rowCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
         try {
-            return ByteBuffer.wrap(
-                    Optional.ofNullable(rocksDB.get(ByteBufferUtils.restoreByteArray(key)))
-                            .orElseThrow(() ->
-                                    new NoSuchElementExceptionLite("This is not the data you are looking for")));
+            return read(key, reads);
         } catch (RocksDBException e) {
             throw new IOException(ROCK, e);
         }
     }
 
+    /**
+     * Method looks through caches, memtables and the block cache, RocksDB reports
+     * {@code Incomplete} instead of reading the disk.
+     */
     @Override
-    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
+    public boolean findValueInMemory(@NotNull final ByteBuffer key,
+                                     @NotNull final Consumer<Value> answer) throws IOException {
+        if (misses != null && misses.contains(key)) {
+            answer.accept(null);
+            return true;
+        }
+        final Value cached = rowCache == null ? null : rowCache.get(key);
+        if (cached != null) {
+            answer.accept(cached);
+            return true;
+        }
+        final Value value;
         try {
-            rocksDB.put(ByteBufferUtils.restoreByteArray(key), ByteBufferUtils.getByteArray(value));
+            value = read(key, memoryReads);
         } catch (RocksDBException e) {
+            if (e.getStatus() != null && e.getStatus().getCode() == Status.Code.Incomplete) {
+                return false;
+            }
             throw new IOException(ROCK, e);
         }
+        answer.accept(value);
+        return true;
+    }
+
+    /**
+     * Method reads the storage and fills caches unless the key was written meanwhile.
+     */
+    @Nullable
+    private Value read(final ByteBuffer key, final ReadOptions options) throws RocksDBException, IOException {
+        final long missVersion = misses == null ? 0 : misses.version(key);
+        final long rowVersion = rowCache == null ? 0 : rowCache.version(key);
+        final byte[] encoded = ByteBufferUtils.restoreByteArray(key);
+        final Value value = decode(encoded, rocksDB.get(options, encoded), options);
+        if (value == null) {
+            if (misses != null) {
+                misses.add(key, missVersion);
+            }
+            return null;
+        }
+        if (rowCache != null) {
+            rowCache.admit(key, value, rowVersion);
+        }
+        return value;
+    }
+
+    /**
+     * Method resolves the pointer to the value log. The key is read again if its value has just been relocated
+     * by the log collection. The log is on the disk, so the read limited to memory gets {@code Incomplete}.
+     *
+     * @param key    key as stored in RocksDB
+     * @param stored value read from RocksDB or null
+     * @param options options of the read
+     * @return value or null if the key is absent
+     */
+    @Nullable
+    private Value decode(final byte[] key, @Nullable final byte[] stored, final ReadOptions options)
+            throws RocksDBException, IOException {
+        if (stored == null || valueLog == null) {
+            return stored == null ? null : Value.fromBytes(stored);
+        }
+        if (options == memoryReads && ValueLog.isPointer(stored)) {
+            throw IN_LOG;
+        }
+        for (byte[] current = stored; current != null; current = rocksDB.get(options, key)) {
+            final Value value = valueLog.resolve(current);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Method reads all keys by one multiGet, so it crosses JNI only once.
+     */
+    @NotNull
+    @Override
+    public Map<ByteBuffer, Value> getAll(@NotNull final Collection<ByteBuffer> keys) throws IOException {
+        final List<ByteBuffer> ordered = new ArrayList<>(keys);
+        final List<byte[]> encoded = new ArrayList<>(ordered.size());
+        for (final ByteBuffer key : ordered) {
+            encoded.add(ByteBufferUtils.restoreByteArray(key));
+        }
+        final Map<ByteBuffer, Value> result = new HashMap<>();
+        try {
+            final List<byte[]> values = rocksDB.multiGetAsList(encoded);
+            for (int i = 0; i < values.size(); i++) {
+                final Value value = decode(encoded.get(i), values.get(i), reads);
+                if (value != null) {
+                    result.put(ordered.get(i), value);
+                }
+            }
+        } catch (RocksDBException e) {
+            throw new IOException(ROCK, e);
+        }
+        return result;
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
+        upsert(key, value, System.currentTimeMillis());
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key,
+                       @NotNull final ByteBuffer value,
+                       final long timestamp) throws IOException {
+        put(key, Value.present(value, timestamp), Durability.ASYNC);
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key,
+                       @NotNull final ByteBuffer value,
+                       final long timestamp,
+                       @NotNull final Durability durability) throws IOException {
+        put(key, Value.present(value, timestamp), durability);
     }
 
     @Override
     public void remove(@NotNull final ByteBuffer key) throws IOException {
+        remove(key, System.currentTimeMillis());
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key, final long timestamp) throws IOException {
+        put(key, Value.tombstone(timestamp), Durability.ASYNC);
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key,
+                       final long timestamp,
+                       @NotNull final Durability durability) throws IOException {
+        put(key, Value.tombstone(timestamp), durability);
+    }
+
+    /**
+     * Method applies all cells atomically by one write batch.
+     * Cells older than the stored values or than the earlier cells of the same key are skipped.
+     */
+    @Override
+    public void apply(@NotNull final List<Cell> cells) throws IOException {
+        final List<byte[]> keys = new ArrayList<>(cells.size());
+        for (final Cell cell : cells) {
+            keys.add(ByteBufferUtils.restoreByteArray(cell.getKey()));
+        }
+        final List<Lock> locks = guards.locks(keys);
+        locks.forEach(Lock::lock);
+        try (WriteBatch batch = new WriteBatch();
+             WriteOptions options = new WriteOptions()) {
+            final Map<ByteBuffer, Long> written = new HashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                final Cell cell = cells.get(i);
+                final long timestamp = cell.getValue().getTimestamp();
+                final Long previous = written.get(cell.getKey());
+                if ((previous == null ? storedTimestamp(keys.get(i)) : previous) > timestamp) {
+                    continue;
+                }
+                written.put(cell.getKey(), timestamp);
+                batch.put(keys.get(i), encode(keys.get(i), cell.getValue(), Durability.ASYNC));
+            }
+            rocksDB.write(options, batch);
+        } catch (RocksDBException e) {
+            throw new IOException(ROCK, e);
+        } finally {
+            locks.forEach(Lock::unlock);
+            for (final Cell cell : cells) {
+                invalidate(cell.getKey());
+            }
+        }
+    }
+
+    /**
+     * Method commits the write together with concurrent ones of the same durability in one batch.
+     * The write older than the stored value is skipped, so replicas keep the last write
+     * whatever order writes come in. Writes of the same timestamp are applied in the order they come.
+     */
+    private void put(final ByteBuffer key, final Value value, final Durability durability) throws IOException {
+        final byte[] encoded = ByteBufferUtils.restoreByteArray(key);
+        final Lock guard = guards.lock(encoded);
+        guard.lock();
         try {
-            rocksDB.delete(ByteBufferUtils.restoreByteArray(key));
+            if (storedTimestamp(encoded) > value.getTimestamp()) {
+                return;
+            }
+            combiners.get(durability).write(encoded, encode(encoded, value, durability));
         } catch (RocksDBException e) {
             throw new IOException(ROCK, e);
+        } finally {
+            guard.unlock();
+            invalidate(key);
+        }
+    }
+
+    /**
+     * Method reads only the timestamp of the stored value, it heads both the value and the pointer
+     * to the value log, so the log is not read. It is called under the guard of the key.
+     *
+     * @param key key as stored in RocksDB
+     * @return timestamp of the stored value or {@link Long#MIN_VALUE} if the key is absent
+     */
+    private long storedTimestamp(final byte[] key) throws RocksDBException {
+        final byte[] timestamp = new byte[Long.BYTES];
+        final int length = rocksDB.get(key, timestamp);
+        if (length < Long.BYTES) {
+            return Long.MIN_VALUE;
+        }
+        return ByteBuffer.wrap(timestamp).getLong();
+    }
+
+    private byte[] encode(final byte[] key, final Value value, final Durability durability) throws IOException {
+        return valueLog == null ? value.toBytes() : valueLog.encode(key, value, durability);
+    }
+
+    /**
+     * Method drops the cached value and the miss after the write, even the failed one,
+     * since it may be applied partially.
+     */
+    private void invalidate(final ByteBuffer key) {
+        if (rowCache != null) {
+            rowCache.invalidate(key);
+        }
+        if (misses != null) {
+            misses.invalidate(key);
         }
     }
 
+    /**
+     * Method physically deletes tombstones older than grace period and compacts the storage,
+     * so RocksDB drops both tombstones and values shadowed by them.
+     * Each tombstone is deleted under the exclusive guard of its key only if it is still stored,
+     * so the write which has replaced it since the scan is kept.
+     * Segments of the value log are collected then, since dropped pointers have made their values garbage.
+     *
+     * @throws IOException if compaction fails
+     */
     @Override
     public void compact() throws IOException {
-        try {
+        final long expired = System.currentTimeMillis() - TOMBSTONE_GRACE_PERIOD;
+        try (RocksIterator iterator = rocksDB.newIterator();
+             WriteOptions options = new WriteOptions()) {
+            for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                final byte[] value = iterator.value();
+                if (Value.isTombstone(value) && Value.fromBytes(value).getTimestamp() < expired) {
+                    deleteTombstone(iterator.key(), value, options);
+                }
+            }
             rocksDB.compactRange();
         } catch (RocksDBException exception) {
             throw new IOException(ROCK, exception);
         }
+        if (valueLog != null) {
+            valueLog.collect(true);
+        }
+    }
+
+    private void deleteTombstone(final byte[] key, final byte[] tombstone, final WriteOptions options)
+            throws RocksDBException {
+        final Lock guard = guards.lock(key);
+        guard.lock();
+        try {
+            if (Arrays.equals(rocksDB.get(reads, key), tombstone)) {
+                rocksDB.delete(options, key);
+            }
+        } finally {
+            guard.unlock();
+            invalidate(ByteBufferUtils.shiftByteArray(key));
+        }
+    }
+
+    /**
+     * Method reports native memory of the storage. Memory reserved for memtables is charged to the cache of its own.
+     * Total is the block cache, the reserved memtables, the arena of the row cache and the miss cache,
+     * it stays within the budget.
+     */
+    @NotNull
+    @Override
+    public Map<String, Long> memoryUsage() {
+        final Map<MemoryUsageType, Long> usage =
+                MemoryUtil.getApproximateMemoryUsageByType(List.of(rocksDB), Set.of(cache));
+        final long cached = usage.getOrDefault(MemoryUsageType.kCacheTotal, 0L);
+        final long reserved = memtableCache == null
+                ? 0
+                : MemoryUtil.getApproximateMemoryUsageByType(List.of(rocksDB), Set.of(memtableCache))
+                .getOrDefault(MemoryUsageType.kCacheTotal, 0L);
+        final long rowCacheCapacity = rowCache == null ? 0 : rowCache.capacity();
+        final long missCached = misses == null ? 0 : misses.size();
+        final Map<String, Long> report = new LinkedHashMap<>();
+        report.put("budget", budget);
+        report.put("total", cached + reserved + rowCacheCapacity + missCached);
+        report.put("cache", cached);
+        report.put("memtables.reserved", reserved);
+        report.put("memtables", usage.getOrDefault(MemoryUsageType.kMemTableTotal, 0L));
+        report.put("memtables.unflushed", usage.getOrDefault(MemoryUsageType.kMemTableUnFlushed, 0L));
+        report.put("table.readers", usage.getOrDefault(MemoryUsageType.kTableReadersTotal, 0L));
+        report.put("row.cache", rowCache == null ? 0 : rowCache.size());
+        report.put("row.cache.capacity", rowCacheCapacity);
+        report.put("miss.cache", missCached);
+        return report;
     }
 
     @Override
     public void close() {
+        combiners.values().forEach(WriteCombiner::close);
+        if (valueLog != null) {
+            valueLog.close();
+        }
         rocksDB.close();
+        closeOptions();
+        if (rowCache != null) {
+            rowCache.close();
+        }
+        reads.close();
+        memoryReads.close();
+    }
+
+    /**
+     * Method releases native options, which outlive the storage only if it fails to open.
+     */
+    private void closeOptions() {
+        options.close();
+        if (writeBufferManager != null) {
+            writeBufferManager.close();
+        }
+        if (memtableCache != null) {
+            memtableCache.close();
+        }
+        cache.close();
+        if (filter != null) {
+            filter.close();
+        }
+    }
+
+    /**
+     * RocksDB snapshot with the value log segments pinned at the same moment.
+     * View is reference counted: scans retain it, so it is released after the last of them is closed.
+     */
+    private final class View implements DAO.Snapshot {
+        private final org.rocksdb.Snapshot snapshot;
+        @Nullable
+        private final ValueLog.Pin pin;
+        private final AtomicInteger references = new AtomicInteger(1);
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private View(@Nullable final ValueLog.Pin pin) {
+            this.pin = pin;
+            this.snapshot = rocksDB.getSnapshot();
+        }
+
+        /**
+         * Method opens the scan which neither fills the block cache nor reads past the upper bound.
+         * Native iterator and options are released on close or as soon as the scan is over.
+         */
+        @NotNull
+        @Override
+        public CloseableIterator<Cell> cellRange(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) {
+            if (to != null && from.compareTo(to) > 0) {
+                return CloseableIterator.empty();
+            }
+            if (!retain()) {
+                throw new IllegalStateException("Snapshot is closed");
+            }
+            final ReadOptions options = new ReadOptions()
+                    .setSnapshot(snapshot)
+                    .setFillCache(false)
+                    .setReadaheadSize(SCAN_READAHEAD);
+            final Slice bound = to == null ? null : new Slice(ByteBufferUtils.restoreByteArray(to));
+            if (bound != null) {
+                options.setIterateUpperBound(bound);
+            }
+            final RocksIterator iterator = rocksDB.newIterator(options);
+            iterator.seek(ByteBufferUtils.restoreByteArray(from));
+
+            return new CloseableIterator<>() {
+                private boolean closed;
+
+                @Override
+                public boolean hasNext() {
+                    if (closed) {
+                        return false;
+                    }
+                    if (iterator.isValid()) {
+                        return true;
+                    }
+                    close();
+                    return false;
+                }
+
+                @Override
+                public Cell next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException("Next on empty iterator");
+                    }
+                    final ByteBuffer key = ByteBufferUtils.shiftByteArray(iterator.key());
+                    final Value value;
+                    try {
+                        value = pin == null ? Value.fromBytes(iterator.value()) : pin.resolve(iterator.value());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Can't read value log", e);
+                    }
+                    iterator.next();
+                    return Cell.of(key, value);
+                }
+
+                @Override
+                public void close() {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    iterator.close();
+                    options.close();
+                    if (bound != null) {
+                        bound.close();
+                    }
+                    release();
+                }
+            };
+        }
+
+        private boolean retain() {
+            while (true) {
+                final int count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void release() {
+            if (references.decrementAndGet() != 0) {
+                return;
+            }
+            rocksDB.releaseSnapshot(snapshot);
+            if (pin != null) {
+                pin.close();
+            }
+        }
+
+        /**
+         * Method drops the reference of the owner, scans opened by it keep the view till they are closed.
+         */
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release();
+            }
+        }
     }
 }
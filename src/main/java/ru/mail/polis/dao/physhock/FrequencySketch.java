@@ -0,0 +1,75 @@
+package ru.mail.polis.dao.physhock;
+
+/**
+ * Approximate popularity of keys: count-min sketch of 4-bit counters packed into longs.
+ * Counters are halved once the sketch has seen ten times more events than it has counters,
+ * so the popularity reflects recent accesses.
+ * Updates are not atomic, lost increments only make the estimate less precise.
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0x97cb3127L, 0xab1dc5d3L, 0xc3a5c85cL, 0x8cb92ba7L
+    };
+    private static final long HALF_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * Sketch for the given number of distinct keys.
+     *
+     * @param expectedKeys keys the sketch should tell apart
+     */
+    FrequencySketch(final int expectedKeys) {
+        final int length = Integer.highestOneBit(Math.max(expectedKeys, 64) - 1) << 1;
+        this.table = new long[length >>> 4];
+        this.sampleSize = 10 * length;
+    }
+
+    void increment(final int hash) {
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            final long index = indexOf(hash, i);
+            final int slot = (int) (index >>> 32);
+            final int shift = (int) index;
+            if (((table[slot] >>> shift) & MAX_COUNT) < MAX_COUNT) {
+                table[slot] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    int frequency(final int hash) {
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            final long index = indexOf(hash, i);
+            frequency = Math.min(frequency, (int) (table[(int) (index >>> 32)] >>> (int) index) & MAX_COUNT);
+        }
+        return frequency;
+    }
+
+    /**
+     * Method picks the counter of the hash in the row.
+     *
+     * @return slot of the table in the upper half and bit shift of the counter in the lower half
+     */
+    private long indexOf(final int hash, final int row) {
+        long mixed = (hash + SEEDS[row]) * SEEDS[row];
+        mixed += mixed >>> 32;
+        final int counter = (int) mixed & ((table.length << 4) - 1);
+        return ((long) (counter >>> 4) << 32) | ((counter & 15) << 2);
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & HALF_MASK;
+        }
+        additions = sampleSize / 2;
+    }
+}
@@ -0,0 +1,51 @@
+package ru.mail.polis.dao.physhock;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Striped locks of keys of the storage. Writes of the key and background rewrites of the key,
+ * e.g. the relocation of its value or the removal of its tombstone, take its lock,
+ * so each of them checks the stored value and replaces it without overwriting the newer write.
+ */
+final class KeyGuards {
+
+    private static final int STRIPES = 256;
+
+    private final Lock[] locks = new Lock[STRIPES];
+
+    KeyGuards() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Method returns the lock of the key.
+     */
+    Lock lock(@NotNull final byte[] key) {
+        return locks[stripe(key)];
+    }
+
+    /**
+     * Method returns locks of keys in the order of stripes, so concurrent batches don't deadlock.
+     */
+    List<Lock> locks(@NotNull final List<byte[]> keys) {
+        return keys.stream()
+                .mapToInt(KeyGuards::stripe)
+                .distinct()
+                .sorted()
+                .mapToObj(stripe -> locks[stripe])
+                .collect(Collectors.toList());
+    }
+
+    private static int stripe(final byte[] key) {
+        final int hash = Arrays.hashCode(key);
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,798 @@
+package ru.mail.polis.dao.physhock;
+
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.Record;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.Durability;
+import ru.mail.polis.dao.Iters;
+import ru.mail.polis.dao.Value;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Log-structured storage in pure Java. Writes go to the skip list memtable, which is flushed
+ * to the immutable {@link SSTable} in background once it outgrows the write buffer.
+ * Tables of similar size are merged by size-tiered compaction in background,
+ * {@link #compact()} merges all of them into one. The merged table is named by the range of generations
+ * it covers, {@code <newest>-<oldest>.sst}, so its inputs left by the crash are deleted on open
+ * rather than shadowed by it, which would resurrect values of dropped tombstones.
+ * Every memtable and table has a generation, the newer one shadows the older ones.
+ * The write older than the stored value is skipped like in {@link DAOImpl},
+ * so the newer generation holds the newer timestamp of the key.
+ * Every memtable has its {@link WriteAheadLog}, deleted once the memtable is flushed,
+ * logs left by the crash are flushed to tables on open. Writes with {@link Durability#NONE} skip the log.
+ */
+public final class LsmDAO implements DAO {
+
+    private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final String NOT_FOUND = "This is not the data you are looking for";
+    private static final long TOMBSTONE_GRACE_PERIOD = TimeUnit.DAYS.toMillis(1);
+    private static final int MIN_TIER = 4;
+
+    private final Path directory;
+    private final long writeBufferSize;
+    private final int maxFlushing;
+    private final long blockSize;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Condition flushed = lock.writeLock().newCondition();
+    private final Lock compaction = new ReentrantLock();
+    private final KeyGuards guards = new KeyGuards();
+    private final ExecutorService flusher;
+    private final ExecutorService compactor;
+    private volatile State state;
+    private volatile IOException failure;
+    private volatile boolean closed;
+    private long nextGeneration;
+
+    /**
+     * Storage sized by the profile: memtables by the write buffer, index by the block size.
+     *
+     * @param path   data directory
+     * @param config tuning profile
+     * @throws IOException if tables can't be opened
+     */
+    public LsmDAO(@NotNull final File path, @NotNull final DAOConfig config) throws IOException {
+        this.directory = path.toPath();
+        this.writeBufferSize = config.getWriteBufferSize();
+        this.maxFlushing = Math.max(config.getMaxWriteBufferNumber() - 1, 1);
+        this.blockSize = config.getBlockSize();
+        final List<SSTable> tables = open(directory);
+        try {
+            replay(tables);
+            this.nextGeneration = tables.isEmpty() ? 0 : tables.get(0).generation() + 1;
+            this.state = new State(memTable(), List.of(), tables);
+        } catch (IOException e) {
+            tables.forEach(table -> table.retire(false));
+            throw e;
+        }
+        this.flusher = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("lsm-flush-%d").setDaemon(true).build());
+        this.compactor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("lsm-compaction-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Method opens tables of the directory and deletes temporary files and inputs of compaction
+     * left by the crash.
+     *
+     * @return tables, the newest first
+     */
+    private static List<SSTable> open(final Path directory) throws IOException {
+        final List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.collect(Collectors.toList());
+        }
+        final List<SSTable> tables = new ArrayList<>();
+        try {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                if (name.endsWith(SSTable.TEMP)) {
+                    Files.delete(file);
+                } else if (name.endsWith(SSTable.SUFFIX)) {
+                    final String range = name.substring(0, name.length() - SSTable.SUFFIX.length());
+                    final int dash = range.indexOf('-');
+                    final long generation = number(dash < 0 ? range : range.substring(0, dash));
+                    final long oldest = dash < 0 ? generation : number(range.substring(dash + 1));
+                    if (oldest >= 0 && oldest <= generation) {
+                        tables.add(SSTable.open(file, generation, oldest));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            tables.forEach(table -> table.retire(false));
+            throw e;
+        }
+        tables.removeIf(table -> {
+            final boolean merged = tables.stream().anyMatch(other -> other != table && other.covers(table));
+            if (merged) {
+                log.info("Deleting table {} merged before the crash", table.path());
+                table.retire(true);
+            }
+            return merged;
+        });
+        tables.sort(Comparator.comparingLong(SSTable::generation).reversed());
+        return tables;
+    }
+
+    /**
+     * Method flushes memtables logged before the crash to tables, the oldest first.
+     * The log is redundant if the table of its generation exists, since the log is deleted after the flush.
+     *
+     * @param tables tables of the directory, the newest first, the flushed ones are added to them
+     */
+    private void replay(final List<SSTable> tables) throws IOException {
+        final List<Path> logs;
+        try (Stream<Path> listing = Files.list(directory)) {
+            logs = listing.filter(file -> generation(file.getFileName().toString(), WriteAheadLog.SUFFIX) >= 0)
+                    .collect(Collectors.toList());
+        }
+        logs.sort(Comparator.comparingLong(file -> generation(file.getFileName().toString(), WriteAheadLog.SUFFIX)));
+        for (final Path file : logs) {
+            final long generation = generation(file.getFileName().toString(), WriteAheadLog.SUFFIX);
+            if (!Files.exists(file(generation, generation))) {
+                final MemTable replayed = new MemTable(generation, null);
+                WriteAheadLog.replay(file, cell -> replayed.upsert(cell.getKey(), cell.getValue()));
+                if (!replayed.isEmpty()) {
+                    tables.add(writeTable(generation, generation, replayed.iterator()));
+                }
+            }
+            Files.delete(file);
+        }
+        tables.sort(Comparator.comparingLong(SSTable::generation).reversed());
+    }
+
+    private static long generation(final String name, final String suffix) {
+        return name.endsWith(suffix) ? number(name.substring(0, name.length() - suffix.length())) : -1;
+    }
+
+    private static long number(final String text) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Path file(final long generation, final long oldest) {
+        return directory.resolve((generation == oldest ? "" + generation : generation + "-" + oldest) + SSTable.SUFFIX);
+    }
+
+    private MemTable memTable() throws IOException {
+        final long generation = nextGeneration++;
+        return new MemTable(generation, WriteAheadLog.create(directory.resolve(generation + WriteAheadLog.SUFFIX)));
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) {
+        return alive(cells(from, null));
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> range(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) {
+        if (to != null && from.compareTo(to) > 0) {
+            return CloseableIterator.empty();
+        }
+        return alive(cells(from, to));
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Cell> cellRange(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) {
+        if (to != null && from.compareTo(to) > 0) {
+            return CloseableIterator.empty();
+        }
+        return cells(from, to);
+    }
+
+    private static CloseableIterator<Record> alive(final CloseableIterator<Cell> cells) {
+        final Iterator<Cell> alive = Iterators.filter(cells, cell -> !cell.getValue().isTombstone());
+        return CloseableIterator.of(Iterators.transform(alive, Cell::toRecord), cells);
+    }
+
+    /**
+     * Method merges memtables and tables retained till the scan is closed or over.
+     *
+     * @param from first key (inclusive)
+     * @param to   upper bound (exclusive) or null for the scan till the end
+     * @return iterator over cells including tombstones
+     */
+    private CloseableIterator<Cell> cells(final ByteBuffer from, @Nullable final ByteBuffer to) {
+        final State snapshot = acquire();
+        final List<Iterator<Cell>> sources = new ArrayList<>();
+        sources.add(snapshot.active.iterator(from, to));
+        snapshot.flushing.forEach(table -> sources.add(table.iterator(from, to)));
+        snapshot.tables.forEach(table -> sources.add(table.iterator(from, to)));
+        final Iterator<Cell> cells = merge(sources);
+
+        return new CloseableIterator<>() {
+            private boolean closed;
+
+            @Override
+            public boolean hasNext() {
+                if (closed) {
+                    return false;
+                }
+                if (cells.hasNext()) {
+                    return true;
+                }
+                close();
+                return false;
+            }
+
+            @Override
+            public Cell next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("Next on empty iterator");
+                }
+                return cells.next();
+            }
+
+            @Override
+            public void close() {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                release(snapshot);
+            }
+        };
+    }
+
+    /**
+     * Method merges sources given the newest first, so the cell of the newer source wins.
+     */
+    private static Iterator<Cell> merge(final List<Iterator<Cell>> sources) {
+        final List<Iterator<Ranked>> ranked = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            final int rank = i;
+            ranked.add(Iterators.transform(sources.get(i), cell -> new Ranked(cell, rank)));
+        }
+        final Iterator<Ranked> merged = Iters.merge(ranked, Ranked.ORDER);
+        return Iterators.transform(Iters.collapseEquals(merged, entry -> entry.cell.getKey()), entry -> entry.cell);
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        final Value value = getValue(key);
+        if (value.isTombstone()) {
+            throw new NoSuchElementExceptionLite(NOT_FOUND);
+        }
+        return value.getData();
+    }
+
+    @NotNull
+    @Override
+    public Value getValue(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        final Value value = findValue(key);
+        if (value == null) {
+            throw new NoSuchElementExceptionLite(NOT_FOUND);
+        }
+        return value;
+    }
+
+    @Nullable
+    @Override
+    public Value findValue(@NotNull final ByteBuffer key) throws IOException {
+        final State snapshot = acquire();
+        try {
+            final Value value = findInMemory(snapshot, key);
+            if (value != null) {
+                return value;
+            }
+            for (final SSTable table : snapshot.tables) {
+                final Value stored = table.get(key);
+                if (stored != null) {
+                    return stored;
+                }
+            }
+            return null;
+        } finally {
+            release(snapshot);
+        }
+    }
+
+    /**
+     * Method answers only the keys found in memtables, since tables are read from the disk.
+     */
+    @Override
+    public boolean findValueInMemory(@NotNull final ByteBuffer key, @NotNull final Consumer<Value> answer) {
+        final Value value = findInMemory(state, key);
+        if (value == null) {
+            return false;
+        }
+        answer.accept(value);
+        return true;
+    }
+
+    @Nullable
+    private static Value findInMemory(final State snapshot, final ByteBuffer key) {
+        final Value value = snapshot.active.get(key);
+        if (value != null) {
+            return value;
+        }
+        for (final MemTable table : snapshot.flushing) {
+            final Value flushing = table.get(key);
+            if (flushing != null) {
+                return flushing;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Method retains tables of the current state, retrying if compaction has just closed one of them.
+     */
+    private State acquire() {
+        while (true) {
+            final State current = state;
+            int retained = 0;
+            while (retained < current.tables.size() && current.tables.get(retained).retain()) {
+                retained++;
+            }
+            if (retained == current.tables.size()) {
+                return current;
+            }
+            current.tables.subList(0, retained).forEach(SSTable::release);
+        }
+    }
+
+    private static void release(final State snapshot) {
+        snapshot.tables.forEach(SSTable::release);
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
+        upsert(key, value, System.currentTimeMillis());
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key,
+                       @NotNull final ByteBuffer value,
+                       final long timestamp) throws IOException {
+        upsert(key, value, timestamp, Durability.ASYNC);
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key,
+                       @NotNull final ByteBuffer value,
+                       final long timestamp,
+                       @NotNull final Durability durability) throws IOException {
+        write(List.of(Cell.of(copy(key), Value.present(copy(value), timestamp))), durability);
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        remove(key, System.currentTimeMillis());
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key, final long timestamp) throws IOException {
+        remove(key, timestamp, Durability.ASYNC);
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key,
+                       final long timestamp,
+                       @NotNull final Durability durability) throws IOException {
+        write(List.of(Cell.of(copy(key), Value.tombstone(timestamp))), durability);
+    }
+
+    /**
+     * Method puts all cells into the same memtable by one record of the log, so they are recovered together.
+     */
+    @Override
+    public void apply(@NotNull final List<Cell> cells) throws IOException {
+        final List<Cell> copies = new ArrayList<>(cells.size());
+        for (final Cell cell : cells) {
+            final Value value = cell.getValue();
+            copies.add(Cell.of(copy(cell.getKey()), value.isTombstone()
+                    ? value
+                    : Value.present(copy(value.getData()), value.getTimestamp())));
+        }
+        write(copies, Durability.ASYNC);
+    }
+
+    /**
+     * Method logs and puts cells owned by the memtable since then. The log is not deleted meanwhile,
+     * since the memtable is frozen under the write lock.
+     * Cells older than the stored values are skipped under guards of their keys, so the lookup
+     * and the write are not interleaved with the concurrent write of the same key.
+     */
+    private void write(final List<Cell> cells, final Durability durability) throws IOException {
+        checkFailure();
+        final List<byte[]> keys = new ArrayList<>(cells.size());
+        for (final Cell cell : cells) {
+            keys.add(ByteBufferUtils.restoreByteArray(cell.getKey()));
+        }
+        final List<Lock> locks = guards.locks(keys);
+        final MemTable table;
+        locks.forEach(Lock::lock);
+        try {
+            final List<Cell> newest = newest(cells);
+            if (newest.isEmpty()) {
+                return;
+            }
+            lock.readLock().lock();
+            try {
+                table = state.active;
+                table.log().write(newest, durability,
+                        () -> newest.forEach(cell -> table.upsert(cell.getKey(), cell.getValue())));
+            } finally {
+                lock.readLock().unlock();
+            }
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
+        if (table.size() >= writeBufferSize) {
+            freeze(table);
+        }
+    }
+
+    /**
+     * Method drops cells older than the stored values or than the earlier cells of the same key.
+     */
+    private List<Cell> newest(final List<Cell> cells) throws IOException {
+        final List<Cell> newest = new ArrayList<>(cells.size());
+        final Map<ByteBuffer, Long> written = new HashMap<>();
+        for (final Cell cell : cells) {
+            final long timestamp = cell.getValue().getTimestamp();
+            final Long previous = written.get(cell.getKey());
+            if (previous == null) {
+                final Value stored = findValue(cell.getKey());
+                if (stored != null && stored.getTimestamp() > timestamp) {
+                    continue;
+                }
+            } else if (previous > timestamp) {
+                continue;
+            }
+            written.put(cell.getKey(), timestamp);
+            newest.add(cell);
+        }
+        return newest;
+    }
+
+    private static ByteBuffer copy(final ByteBuffer buffer) {
+        return ByteBuffer.allocate(buffer.remaining()).put(buffer.duplicate()).flip();
+    }
+
+    private void checkFailure() throws IOException {
+        final IOException cause = failure;
+        if (cause != null) {
+            throw new IOException("Background flush failed", cause);
+        }
+    }
+
+    /**
+     * Method replaces the full memtable by the empty one and schedules the flush.
+     * Writers wait while too many memtables are being flushed, so the heap is not exhausted by writes.
+     *
+     * @param expected memtable to replace, nothing is done if another writer has already replaced it
+     */
+    private void freeze(final MemTable expected) throws IOException {
+        lock.writeLock().lock();
+        try {
+            while (state.active == expected && state.flushing.size() >= maxFlushing) {
+                checkFailure();
+                flushed.await();
+            }
+            if (state.active == expected) {
+                freeze();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for flush");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void freeze() throws IOException {
+        final MemTable frozen = state.active;
+        state = state.frozen(memTable());
+        flusher.execute(() -> flush(frozen));
+    }
+
+    /**
+     * Method writes the memtable to the table of its generation and deletes its log, the table is durable by then.
+     * Compaction is scheduled before waiting writers are signalled,
+     * so it is never scheduled after close has shut the compactor down.
+     */
+    private void flush(final MemTable frozen) {
+        try {
+            final SSTable table = frozen.isEmpty()
+                    ? null
+                    : writeTable(frozen.generation(), frozen.generation(), frozen.iterator());
+            frozen.log().delete();
+            lock.writeLock().lock();
+            try {
+                state = state.flushed(frozen, table);
+                compactor.execute(this::compactTiers);
+                flushed.signalAll();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            log.error("Can't flush memtable {}", frozen.generation(), e);
+            lock.writeLock().lock();
+            try {
+                failure = e;
+                flushed.signalAll();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private SSTable writeTable(final long generation,
+                               final long oldest,
+                               final Iterator<Cell> cells) throws IOException {
+        final Path path = file(generation, oldest);
+        SSTable.write(path, cells, blockSize);
+        return SSTable.open(path, generation, oldest);
+    }
+
+    /**
+     * Method flushes the active memtable and waits till all memtables are flushed.
+     */
+    private void flushAll() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!state.active.isEmpty()) {
+                freeze();
+            }
+            while (!state.flushing.isEmpty()) {
+                checkFailure();
+                flushed.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for flush");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Method merges runs of tables of similar size until no run is long enough.
+     */
+    private void compactTiers() {
+        compaction.lock();
+        try {
+            for (List<SSTable> run = tier(state.tables); run != null && !closed; run = tier(state.tables)) {
+                compact(run);
+            }
+        } catch (IOException e) {
+            log.error("Size-tiered compaction failed", e);
+        } finally {
+            compaction.unlock();
+        }
+    }
+
+    /**
+     * Method looks for at least {@link #MIN_TIER} adjacent generations of similar size:
+     * every table is within half and one and a half of the average of the run, tables smaller than
+     * the write buffer are all similar. Only adjacent generations may be merged,
+     * since the merged table takes the place of the run among the others.
+     *
+     * @param tables tables, the newest first
+     * @return run of tables, the newest first, or null if there is nothing to merge
+     */
+    @Nullable
+    private List<SSTable> tier(final List<SSTable> tables) {
+        int start = 0;
+        while (start < tables.size()) {
+            long total = tables.get(start).fileSize();
+            int end = start + 1;
+            while (end < tables.size() && similar(tables.get(end).fileSize(), total / (end - start))) {
+                total += tables.get(end).fileSize();
+                end++;
+            }
+            if (end - start >= MIN_TIER) {
+                return tables.subList(start, end);
+            }
+            start = end;
+        }
+        return null;
+    }
+
+    private boolean similar(final long size, final long average) {
+        return size < writeBufferSize && average < writeBufferSize
+                || size >= average / 2 && size <= average * 3 / 2;
+    }
+
+    /**
+     * Method merges all tables into one, so shadowed values are dropped
+     * along with tombstones older than the grace period.
+     *
+     * @throws IOException if compaction fails
+     */
+    @Override
+    public void compact() throws IOException {
+        flushAll();
+        compaction.lock();
+        try {
+            final List<SSTable> tables = state.tables;
+            if (!tables.isEmpty()) {
+                compact(tables);
+            }
+        } finally {
+            compaction.unlock();
+        }
+    }
+
+    /**
+     * Method writes the merged run to the table covering its generations and deletes the run
+     * once its reads are over. The merged table is kept even if it is empty, since until the run is deleted
+     * it is the only record of the merge. The run of a single table is replaced in place.
+     * Tombstones are dropped only if the run includes the oldest table, so no older value shows through.
+     *
+     * @param run adjacent tables, the newest first
+     */
+    private void compact(final List<SSTable> run) throws IOException {
+        final List<SSTable> inputs = List.copyOf(run);
+        final boolean oldest = inputs.get(inputs.size() - 1) == state.tables.get(state.tables.size() - 1);
+        final long expired = System.currentTimeMillis() - TOMBSTONE_GRACE_PERIOD;
+        final List<Iterator<Cell>> sources = new ArrayList<>(inputs.size());
+        inputs.forEach(table -> sources.add(table.iterator()));
+        Iterator<Cell> cells = merge(sources);
+        if (oldest) {
+            cells = Iterators.filter(cells,
+                    cell -> !cell.getValue().isTombstone() || cell.getValue().getTimestamp() >= expired);
+        }
+        final SSTable merged = writeTable(inputs.get(0).generation(), inputs.get(inputs.size() - 1).oldest(), cells);
+        lock.writeLock().lock();
+        try {
+            state = state.compacted(inputs, merged);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (final SSTable table : inputs) {
+            table.retire(!table.path().equals(merged.path()));
+        }
+    }
+
+    /**
+     * Method reports heap taken by memtables and sparse indexes of tables,
+     * and the size of mapped tables, which are cached by the page cache rather than by the heap.
+     */
+    @NotNull
+    @Override
+    public Map<String, Long> memoryUsage() {
+        final State current = state;
+        final Map<String, Long> report = new LinkedHashMap<>();
+        report.put("memtables", current.active.size());
+        report.put("memtables.unflushed", current.flushing.stream().mapToLong(MemTable::size).sum());
+        report.put("table.indexes", current.tables.stream().mapToLong(SSTable::indexSize).sum());
+        report.put("tables.mapped", current.tables.stream().mapToLong(SSTable::fileSize).sum());
+        return report;
+    }
+
+    /**
+     * Method flushes memtables and waits for the compaction in progress.
+     * Logs are kept if the flush has failed, so their writes are recovered on open.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (failure == null) {
+                flushAll();
+            }
+        } finally {
+            closed = true;
+            flusher.shutdown();
+            compactor.shutdown();
+            try {
+                flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            state.tables.forEach(table -> table.retire(false));
+            closeLogs();
+        }
+    }
+
+    private void closeLogs() throws IOException {
+        final WriteAheadLog active = state.active.log();
+        if (failure == null && state.active.isEmpty()) {
+            active.delete();
+        } else {
+            active.close();
+        }
+        for (final MemTable table : state.flushing) {
+            table.log().close();
+        }
+    }
+
+    /**
+     * Memtables and tables visible to reads, the newest first. State is replaced as a whole under the write lock.
+     */
+    private static final class State {
+        private final MemTable active;
+        private final List<MemTable> flushing;
+        private final List<SSTable> tables;
+
+        private State(final MemTable active, final List<MemTable> flushing, final List<SSTable> tables) {
+            this.active = active;
+            this.flushing = flushing;
+            this.tables = tables;
+        }
+
+        private State frozen(final MemTable fresh) {
+            final List<MemTable> frozen = new ArrayList<>(flushing.size() + 1);
+            frozen.add(active);
+            frozen.addAll(flushing);
+            return new State(fresh, List.copyOf(frozen), tables);
+        }
+
+        private State flushed(final MemTable table, @Nullable final SSTable flushed) {
+            final List<MemTable> rest = new ArrayList<>(flushing);
+            rest.remove(table);
+            final List<SSTable> all = new ArrayList<>(tables.size() + 1);
+            if (flushed != null) {
+                all.add(flushed);
+            }
+            all.addAll(tables);
+            return new State(active, List.copyOf(rest), List.copyOf(all));
+        }
+
+        private State compacted(final List<SSTable> inputs, final SSTable merged) {
+            final List<SSTable> rest = new ArrayList<>(tables);
+            rest.removeAll(inputs);
+            rest.add(merged);
+            rest.sort(Comparator.comparingLong(SSTable::generation).reversed());
+            return new State(active, flushing, List.copyOf(rest));
+        }
+    }
+
+    /**
+     * Cell tagged by the position of its source, the newest source goes first among cells with the same key.
+     */
+    private static final class Ranked {
+        private static final Comparator<Ranked> ORDER = Comparator.<Ranked, Cell>comparing(ranked -> ranked.cell)
+                .thenComparingInt(ranked -> ranked.rank);
+
+        private final Cell cell;
+        private final int rank;
+
+        private Ranked(final Cell cell, final int rank) {
+            this.cell = cell;
+            this.rank = rank;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package ru.mail.polis.dao.physhock;
+
+import com.google.common.collect.Iterators;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.Value;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sorted in-memory table of the newest writes of {@link LsmDAO}, the newer write of the key replaces the older one.
+ * Size counts keys and values together with the estimated overhead of the skip list entry,
+ * so the table is flushed before its heap footprint outgrows the write buffer.
+ * Writes reach the table through its {@link WriteAheadLog}, the table replayed from the log has none.
+ */
+final class MemTable {
+
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final NavigableMap<ByteBuffer, Value> cells = new ConcurrentSkipListMap<>();
+    private final AtomicLong size = new AtomicLong();
+    private final long generation;
+    private final WriteAheadLog log;
+
+    /**
+     * Empty table.
+     *
+     * @param generation generation of the file the table is flushed to
+     * @param log        log of writes to the table or null if the table is not written to
+     */
+    MemTable(final long generation, @Nullable final WriteAheadLog log) {
+        this.generation = generation;
+        this.log = log;
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    @Nullable
+    WriteAheadLog log() {
+        return log;
+    }
+
+    /**
+     * Method puts the value, key and value are owned by the table since then.
+     */
+    void upsert(@NotNull final ByteBuffer key, @NotNull final Value value) {
+        final Value previous = cells.put(key, value);
+        final int length = value.getData().remaining();
+        size.addAndGet(previous == null
+                ? ENTRY_OVERHEAD + key.remaining() + length
+                : length - previous.getData().remaining());
+    }
+
+    @Nullable
+    Value get(@NotNull final ByteBuffer key) {
+        return cells.get(key);
+    }
+
+    /**
+     * Method returns cells in key order, the iterator is weakly consistent with concurrent writes.
+     *
+     * @param from first key (inclusive)
+     * @param to   upper bound (exclusive) or null for the scan till the end
+     * @return iterator over cells including tombstones
+     */
+    Iterator<Cell> iterator(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) {
+        final Map<ByteBuffer, Value> range = to == null ? cells.tailMap(from) : cells.subMap(from, to);
+        return Iterators.transform(range.entrySet().iterator(), entry -> Cell.of(entry.getKey(), entry.getValue()));
+    }
+
+    Iterator<Cell> iterator() {
+        return Iterators.transform(cells.entrySet().iterator(), entry -> Cell.of(entry.getKey(), entry.getValue()));
+    }
+
+    boolean isEmpty() {
+        return cells.isEmpty();
+    }
+
+    long size() {
+        return size.get();
+    }
+}
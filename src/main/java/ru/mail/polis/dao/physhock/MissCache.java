@@ -0,0 +1,118 @@
+package ru.mail.polis.dao.physhock;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Recent lookups of keys which were never written. Slot of the table keeps the 64-bit fingerprint
+ * of the key, newer miss replaces the older one in the same slot.
+ * Two keys are confused only if their fingerprints are equal, which is negligible for 64 bits.
+ * Write of the key removes its fingerprint, so the key written after the miss is found.
+ */
+final class MissCache {
+
+    private static final int STRIPES = 1024;
+    private static final long EMPTY = 0;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final AtomicLongArray slots;
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+
+    /**
+     * Cache of the given number of misses.
+     *
+     * @param entries number of slots, rounded up to a power of two
+     */
+    MissCache(final int entries) {
+        this.slots = new AtomicLongArray(slots(entries));
+    }
+
+    /**
+     * Method returns the size of the cache of the given number of misses, it is charged to the storage budget.
+     */
+    static long sizeOf(final int entries) {
+        return (long) (slots(entries) + STRIPES) * Long.BYTES;
+    }
+
+    private static int slots(final int entries) {
+        return Integer.highestOneBit(Math.max(entries, 2) - 1) << 1;
+    }
+
+    /**
+     * Method returns the version of the key to be passed to {@link #add} after the storage missed the key.
+     */
+    long version(@NotNull final ByteBuffer key) {
+        return versions.get(stripe(fingerprint(key)));
+    }
+
+    boolean contains(@NotNull final ByteBuffer key) {
+        final long fingerprint = fingerprint(key);
+        return slots.get(slot(fingerprint)) == fingerprint;
+    }
+
+    /**
+     * Method remembers the miss unless the key was written since the storage was read.
+     * Fingerprint is published before the version is checked again, while writer bumps the version
+     * before removing the fingerprint, so either of them removes the miss overtaken by the write.
+     *
+     * @param key     missed key
+     * @param version version of the key taken before the read
+     */
+    void add(@NotNull final ByteBuffer key, final long version) {
+        final long fingerprint = fingerprint(key);
+        final int stripe = stripe(fingerprint);
+        if (versions.get(stripe) != version) {
+            return;
+        }
+        final int slot = slot(fingerprint);
+        slots.set(slot, fingerprint);
+        if (versions.get(stripe) != version) {
+            slots.compareAndSet(slot, fingerprint, EMPTY);
+        }
+    }
+
+    /**
+     * Method forgets the miss, it is called after the key is written to the storage.
+     */
+    void invalidate(@NotNull final ByteBuffer key) {
+        final long fingerprint = fingerprint(key);
+        versions.incrementAndGet(stripe(fingerprint));
+        slots.compareAndSet(slot(fingerprint), fingerprint, EMPTY);
+    }
+
+    /**
+     * Size of the table and the versions in bytes.
+     */
+    long size() {
+        return (long) (slots.length() + versions.length()) * Long.BYTES;
+    }
+
+    private int slot(final long fingerprint) {
+        return (int) fingerprint & (slots.length() - 1);
+    }
+
+    private static int stripe(final long fingerprint) {
+        return (int) (fingerprint >>> 32) & (STRIPES - 1);
+    }
+
+    /**
+     * Method hashes the key by FNV-1a finished by the avalanche step of MurmurHash3.
+     *
+     * @return non-zero fingerprint
+     */
+    private static long fingerprint(final ByteBuffer key) {
+        long hash = FNV_OFFSET;
+        for (int i = key.position(); i < key.limit(); i++) {
+            hash = (hash ^ (key.get(i) & 0xff)) * FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? 1 : hash;
+    }
+}
@@ -0,0 +1,304 @@
+package ru.mail.polis.dao.physhock;
+
+import one.nio.mem.DirectMemory;
+import one.nio.mem.Malloc;
+import one.nio.mem.OutOfMemoryException;
+import one.nio.util.JavaInternals;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.dao.Value;
+
+import java.io.Closeable;
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Cache of hot values in front of the storage. Keys and values live off-heap in the arena of fixed size,
+ * index refers to keys by direct buffers, hit copies the value straight into the array of the response body.
+ * That array is the only allocation of the hit, which is short of serving hits without allocation: one-nio sends
+ * the body of {@link one.nio.http.Response} from the array of its exact length, which may wait in the queue
+ * of the session, so neither a reusable buffer nor a view of the arena, which may be reused meanwhile, can be sent.
+ * Still the hit skips JNI and {@link Value#getDataArray()} returns the array without one more copy.
+ * Eviction is CLOCK: entry read since the last pass of the hand gets a second chance.
+ * Admission is TinyLFU: new value replaces the victim only if its key is more popular.
+ * Hits don't lock: arena is never unmapped, so the copy is validated against frees afterwards.
+ * Hence {@link #close()} only empties the cache, the arena is freed once the cache is unreachable,
+ * so no hit copies from the freed memory.
+ */
+final class RowCache implements Closeable {
+
+    private static final int STRIPES = 256;
+    private static final int AVERAGE_ENTRY_SIZE = 256;
+    private static final Cleaner cleaner = Cleaner.create();
+
+    private final long base;
+    private final long capacity;
+    private final Malloc arena;
+    private final int maxEntrySize;
+    private final FrequencySketch sketch;
+    private final Map<ByteBuffer, Entry> index = new ConcurrentHashMap<>();
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+    private final StampedLock lock = new StampedLock();
+    private Entry hand;
+    private int count;
+    private long used;
+    private volatile boolean closed;
+
+    /**
+     * Cache of values up to the given size.
+     *
+     * @param capacity size of the off-heap arena in bytes
+     */
+    RowCache(final long capacity) {
+        this.capacity = capacity;
+        final long address = DirectMemory.allocateRaw(capacity);
+        this.base = address;
+        cleaner.register(this, () -> DirectMemory.freeRaw(address));
+        DirectMemory.clear(base, capacity);
+        this.arena = new Malloc(base, capacity);
+        this.maxEntrySize = (int) Math.min(capacity / 16, Integer.MAX_VALUE);
+        this.sketch = new FrequencySketch((int) Math.min(capacity / AVERAGE_ENTRY_SIZE, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Method returns the version of the key to be passed to {@link #admit} after the value is read from the storage.
+     */
+    long version(@NotNull final ByteBuffer key) {
+        return versions.get(stripe(key.hashCode()));
+    }
+
+    /**
+     * Method looks up the value and counts the access to the key.
+     *
+     * @param key key
+     * @return value which data is the whole backing array, or null if the value is not cached
+     */
+    @Nullable
+    Value get(@NotNull final ByteBuffer key) {
+        if (closed) {
+            return null;
+        }
+        sketch.increment(key.hashCode());
+        final long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            final Value value = read(key);
+            if (lock.validate(stamp)) {
+                return value;
+            }
+        }
+        final long readStamp = lock.readLock();
+        try {
+            return read(key);
+        } finally {
+            lock.unlockRead(readStamp);
+        }
+    }
+
+    @Nullable
+    private Value read(final ByteBuffer key) {
+        final Entry entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+        final byte[] data = new byte[entry.length];
+        JavaInternals.unsafe.copyMemory(null, entry.address + entry.key.capacity(), data,
+                JavaInternals.byteArrayOffset, entry.length);
+        entry.referenced = true;
+        // The arena is not freed till the copy is over
+        Reference.reachabilityFence(this);
+        return Value.present(ByteBuffer.wrap(data), entry.timestamp);
+    }
+
+    /**
+     * Method caches the value read from the storage unless the key was written since the value was read.
+     *
+     * @param key     key
+     * @param value   value read from the storage
+     * @param version version of the key taken before the read
+     */
+    void admit(@NotNull final ByteBuffer key, @NotNull final Value value, final long version) {
+        if (value.isTombstone()) {
+            return;
+        }
+        final ByteBuffer data = value.getData();
+        final int keyLength = key.remaining();
+        final int length = data.remaining();
+        if ((long) keyLength + length > maxEntrySize) {
+            return;
+        }
+        final int hash = key.hashCode();
+        final long stamp = lock.writeLock();
+        try {
+            if (closed || versions.get(stripe(hash)) != version || index.containsKey(key)) {
+                return;
+            }
+            long address = allocate(keyLength + length);
+            while (address == 0) {
+                final Entry victim = victim();
+                if (victim == null || !morePopular(hash, victim.hash)) {
+                    return;
+                }
+                evict(victim);
+                address = allocate(keyLength + length);
+            }
+            final ByteBuffer storedKey = DirectMemory.wrap(address, keyLength);
+            storedKey.put(key.duplicate()).flip();
+            DirectMemory.wrap(address + keyLength, length).put(data);
+            final Entry entry = new Entry(storedKey, hash, address, length, value.getTimestamp());
+            index.put(storedKey, entry);
+            link(entry);
+            used += keyLength + length;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Method drops the cached value, it is called after the key is written to the storage.
+     */
+    void invalidate(@NotNull final ByteBuffer key) {
+        versions.incrementAndGet(stripe(key.hashCode()));
+        if (!index.containsKey(key)) {
+            return;
+        }
+        final long stamp = lock.writeLock();
+        try {
+            final Entry entry = index.remove(key);
+            if (entry != null) {
+                release(entry);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Size of cached keys and values in bytes.
+     */
+    long size() {
+        final long stamp = lock.readLock();
+        try {
+            return used;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    long capacity() {
+        return capacity;
+    }
+
+    private long allocate(final int length) {
+        try {
+            return arena.malloc(length);
+        } catch (OutOfMemoryException e) {
+            return 0;
+        }
+    }
+
+    private boolean morePopular(final int candidate, final int victim) {
+        return sketch.frequency(candidate) > sketch.frequency(victim);
+    }
+
+    /**
+     * Method moves the hand past the entries read since its last pass clearing their marks.
+     *
+     * @return first entry not read since the last pass, or null if the cache is empty
+     */
+    @Nullable
+    private Entry victim() {
+        for (int i = 0; i < count && hand.referenced; i++) {
+            hand.referenced = false;
+            hand = hand.next;
+        }
+        return hand;
+    }
+
+    private void evict(final Entry victim) {
+        index.remove(victim.key, victim);
+        release(victim);
+    }
+
+    private void release(final Entry entry) {
+        unlink(entry);
+        arena.free(entry.address);
+        used -= entry.key.capacity() + entry.length;
+    }
+
+    private void link(final Entry entry) {
+        if (hand == null) {
+            entry.next = entry;
+            entry.prev = entry;
+            hand = entry;
+        } else {
+            entry.next = hand;
+            entry.prev = hand.prev;
+            hand.prev.next = entry;
+            hand.prev = entry;
+        }
+        count++;
+    }
+
+    private void unlink(final Entry entry) {
+        if (entry.next == entry) {
+            hand = null;
+        } else {
+            entry.prev.next = entry.next;
+            entry.next.prev = entry.prev;
+            if (hand == entry) {
+                hand = entry.next;
+            }
+        }
+        count--;
+    }
+
+    private static int stripe(final int hash) {
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * Method empties the cache and stops caching. The arena is left to the cleaner,
+     * since optimistic hits started before may still copy from it.
+     */
+    @Override
+    public void close() {
+        final long stamp = lock.writeLock();
+        try {
+            closed = true;
+            index.clear();
+            hand = null;
+            count = 0;
+            used = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Cached key followed by the value in the arena, links of the clock are guarded by the write lock.
+     */
+    private static final class Entry {
+        private final ByteBuffer key;
+        private final int hash;
+        private final long address;
+        private final int length;
+        private final long timestamp;
+        private volatile boolean referenced;
+        private Entry prev;
+        private Entry next;
+
+        private Entry(final ByteBuffer key, final int hash, final long address, final int length,
+                      final long timestamp) {
+            this.key = key;
+            this.hash = hash;
+            this.address = address;
+            this.length = length;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package ru.mail.polis.dao.physhock;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.Value;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable sorted file of {@link LsmDAO}: {@code [cells][index][index offset][index length]},
+ * cells are serialized by {@link Cell#toBytes()}.
+ * Sparse index keeps only the offset of the first cell of every block, so its heap footprint
+ * doesn't depend on the size of keys, lookup reads keys of the index entries from the file.
+ * File is mapped read-only, keys and values are returned as slices of the mapping without copying,
+ * so hot data is held by the page cache rather than by the heap. Mapping is released by GC once
+ * no slice refers to it, hence the table is limited to 2GB.
+ * Table is reference counted: reads retain it, so the file replaced by compaction is deleted after them.
+ * Table covers the range of generations merged into it, so inputs left by the crash of compaction are
+ * recognized by the merged table covering them.
+ */
+final class SSTable {
+
+    static final String SUFFIX = ".sst";
+    static final String TEMP = ".tmp";
+
+    private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final int FOOTER_SIZE = Long.BYTES + Integer.BYTES;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    private final Path path;
+    private final long generation;
+    private final long oldest;
+    private final ByteBuffer map;
+    private final int[] index;
+    private final int dataSize;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private volatile boolean obsolete;
+
+    private SSTable(final Path path,
+                    final long generation,
+                    final long oldest,
+                    final ByteBuffer map) throws IOException {
+        this.path = path;
+        this.generation = generation;
+        this.oldest = oldest;
+        this.map = map;
+        final int fileSize = map.limit();
+        if (fileSize < FOOTER_SIZE) {
+            throw new IOException("Truncated table " + path);
+        }
+        final long offset = map.getLong(fileSize - FOOTER_SIZE);
+        final int length = map.getInt(fileSize - Integer.BYTES);
+        if (offset < 0 || length < 0 || offset + (long) length * Long.BYTES != fileSize - FOOTER_SIZE) {
+            throw new IOException("Corrupted table " + path);
+        }
+        this.dataSize = (int) offset;
+        this.index = new int[length];
+        for (int i = 0; i < length; i++) {
+            index[i] = (int) map.getLong(dataSize + i * Long.BYTES);
+        }
+    }
+
+    /**
+     * Method maps the table written by {@link #write}, the caller owns the only reference.
+     *
+     * @param path       file of the table
+     * @param generation generation of the table, the newer table shadows the older ones
+     * @param oldest     oldest generation merged into the table, the generation itself for the flushed one
+     * @return table
+     * @throws IOException if the file is missing or corrupted
+     */
+    static SSTable open(@NotNull final Path path, final long generation, final long oldest) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > MAX_SIZE) {
+                throw new IOException("Table is too big to be mapped: " + path);
+            }
+            return new SSTable(path, generation, oldest, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Method writes sorted cells to the temporary file and renames it to the path once it is synced,
+     * so the table either appears as a whole or doesn't appear at all. The directory is synced after the rename,
+     * so the table survives the crash once the method returns.
+     * The existing file at the path is replaced, while its open table still reads the old file.
+     *
+     * @param path      file of the table
+     * @param cells     cells in key order without duplicate keys
+     * @param blockSize bytes of cells per index entry
+     * @throws IOException if the table can't be written or outgrows the mapping
+     */
+    static void write(@NotNull final Path path,
+                      @NotNull final Iterator<Cell> cells,
+                      final long blockSize) throws IOException {
+        final Path temp = path.resolveSibling(path.getFileName() + TEMP);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream output = new DataOutputStream(
+                     new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE))) {
+            final List<Long> index = new ArrayList<>();
+            long offset = 0;
+            long blockEnd = 0;
+            while (cells.hasNext()) {
+                if (offset >= blockEnd) {
+                    index.add(offset);
+                    blockEnd = offset + blockSize;
+                }
+                final byte[] cell = cells.next().toBytes();
+                output.write(cell);
+                offset += cell.length;
+                if (offset + (long) index.size() * Long.BYTES + FOOTER_SIZE > MAX_SIZE) {
+                    throw new IOException("Table is too big to be mapped: " + path);
+                }
+            }
+            for (final long entry : index) {
+                output.writeLong(entry);
+            }
+            output.writeLong(offset);
+            output.writeInt(index.size());
+            output.flush();
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel directory = FileChannel.open(path.getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    long oldest() {
+        return oldest;
+    }
+
+    /**
+     * Method checks if all generations of the other table are merged into this one.
+     */
+    boolean covers(@NotNull final SSTable other) {
+        return oldest <= other.oldest && other.generation <= generation;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long fileSize() {
+        return map.limit();
+    }
+
+    long indexSize() {
+        return (long) index.length * Integer.BYTES;
+    }
+
+    boolean isEmpty() {
+        return index.length == 0;
+    }
+
+    /**
+     * Method looks up the key in the only block which may contain it.
+     *
+     * @param key key
+     * @return value which data is a slice of the mapping, or null if the table has no such key
+     */
+    @Nullable
+    Value get(@NotNull final ByteBuffer key) {
+        final int block = floorBlock(key);
+        if (block < 0) {
+            return null;
+        }
+        final int end = block + 1 < index.length ? index[block + 1] : dataSize;
+        int offset = index[block];
+        while (offset < end) {
+            final ByteBuffer stored = keyAt(offset);
+            offset += Integer.BYTES + stored.remaining();
+            final int order = stored.compareTo(key);
+            if (order == 0) {
+                return valueAt(offset);
+            }
+            if (order > 0) {
+                return null;
+            }
+            offset += Integer.BYTES + map.getInt(offset);
+        }
+        return null;
+    }
+
+    /**
+     * Method scans cells from the block which may contain the first key.
+     *
+     * @param from first key (inclusive)
+     * @param to   upper bound (exclusive) or null for the scan till the end
+     * @return iterator over cells including tombstones, keys and values are slices of the mapping
+     */
+    Iterator<Cell> iterator(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) {
+        final int block = Math.max(floorBlock(from), 0);
+        final int start = index.length == 0 ? dataSize : index[block];
+        return new Iterator<>() {
+            private int offset = start;
+            private Cell next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Cell next() {
+                if (next == null) {
+                    throw new NoSuchElementException("Next on empty iterator");
+                }
+                final Cell result = next;
+                next = advance();
+                return result;
+            }
+
+            @Nullable
+            private Cell advance() {
+                while (offset < dataSize) {
+                    final ByteBuffer key = keyAt(offset);
+                    offset += Integer.BYTES + key.remaining();
+                    final int valueOffset = offset;
+                    offset += Integer.BYTES + map.getInt(valueOffset);
+                    if (key.compareTo(from) < 0) {
+                        continue;
+                    }
+                    if (to != null && key.compareTo(to) >= 0) {
+                        offset = dataSize;
+                        return null;
+                    }
+                    return Cell.of(key, valueAt(valueOffset));
+                }
+                return null;
+            }
+        };
+    }
+
+    Iterator<Cell> iterator() {
+        return iterator(ByteBuffer.allocate(0), null);
+    }
+
+    /**
+     * Method finds the last block starting at or before the key by the binary search over the index.
+     *
+     * @return block number or -1 if the key precedes the first key of the table
+     */
+    private int floorBlock(final ByteBuffer key) {
+        int low = 0;
+        int high = index.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (keyAt(index[mid]).compareTo(key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    private ByteBuffer keyAt(final int offset) {
+        return slice(offset + Integer.BYTES, map.getInt(offset));
+    }
+
+    private Value valueAt(final int offset) {
+        return Value.fromBuffer(slice(offset + Integer.BYTES, map.getInt(offset)));
+    }
+
+    private ByteBuffer slice(final int offset, final int length) {
+        return map.duplicate().position(offset).limit(offset + length).slice();
+    }
+
+    /**
+     * Method takes the reference unless the table is already released.
+     *
+     * @return true if the table is retained and must be released
+     */
+    boolean retain() {
+        while (true) {
+            final int count = references.get();
+            if (count == 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Method deletes the obsolete file once reads are over. The mapping itself is not unmapped,
+     * since slices returned by reads may outlive them.
+     */
+    void release() {
+        if (references.decrementAndGet() != 0 || !obsolete) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Can't delete table {}", path, e);
+        }
+    }
+
+    /**
+     * Method drops the reference of the storage, the table is released once reads are over.
+     *
+     * @param delete whether the file is deleted too, it is not if another table took its path
+     */
+    void retire(final boolean delete) {
+        obsolete = delete;
+        release();
+    }
+}
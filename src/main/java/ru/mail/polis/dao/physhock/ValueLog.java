@@ -0,0 +1,561 @@
+package ru.mail.polis.dao.physhock;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.rocksdb.FlushOptions;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.dao.Durability;
+import ru.mail.polis.dao.Value;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only log of large values of {@link DAOImpl}, RocksDB keeps only pointers to them,
+ * so its compactions don't rewrite the values again and again.
+ * Log is split into segments: {@code [key length][key][value length][value]...},
+ * the pointer is the value {@code [timestamp][pointer flag][segment][offset][length]} stored in RocksDB.
+ * Garbage collection scans sealed segments: values still referenced by RocksDB are appended
+ * to the head of the log and their pointers are replaced, the segment is deleted afterwards.
+ * The segment is deleted only after the durable checkpoint: the head is forced and memtables are flushed,
+ * so no pointer surviving the crash refers to the deleted segment or to the unsynced tail of the head.
+ * Writes of the key and the relocation of the same key exclude each other by {@link KeyGuards},
+ * so the relocation never overwrites the newer value.
+ * Segments are reference counted, so the segment collected during the scan is deleted after the scan.
+ */
+final class ValueLog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final String SUFFIX = ".vlog";
+    /**
+     * Flag of the value moved to the log in place of the {@link Value} flag, the data refers to its place in the log.
+     */
+    private static final byte POINTER = 2;
+    private static final int POINTER_SIZE = Value.HEADER_SIZE + Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final double GARBAGE_RATIO = 0.5;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final RocksDB rocksDB;
+    private final int threshold;
+    private final long segmentSize;
+    private final NavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final KeyGuards guards;
+    private final Lock collection = new ReentrantLock();
+    private final ExecutorService collector;
+    private final ReadOptions reads;
+    private final WriteOptions writes;
+    private final FlushOptions flushes;
+    private Segment head;
+    private int nextId;
+    private int cursor;
+
+    private ValueLog(final Path directory,
+                     final RocksDB rocksDB,
+                     final KeyGuards guards,
+                     final int threshold,
+                     final long segmentSize) {
+        this.directory = directory;
+        this.rocksDB = rocksDB;
+        this.guards = guards;
+        this.threshold = threshold;
+        this.segmentSize = segmentSize;
+        this.collector = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("vlog-gc-%d").setDaemon(true).build());
+        this.reads = new ReadOptions().setFillCache(false);
+        this.writes = new WriteOptions();
+        this.flushes = new FlushOptions().setWaitForFlush(true);
+    }
+
+    /**
+     * Method opens sealed segments, new values go to the new segment.
+     *
+     * @param directory directory of segments
+     * @param rocksDB   storage of pointers
+     * @param guards    locks of keys taken by writes
+     * @param threshold size of the value to be moved to the log, zero means no new values are moved
+     * @param segmentSize size of the segment to be sealed
+     * @return log, or null if it is off and there is nothing to read from it
+     * @throws IOException if segments can't be opened
+     */
+    @Nullable
+    static ValueLog open(@NotNull final Path directory,
+                         @NotNull final RocksDB rocksDB,
+                         @NotNull final KeyGuards guards,
+                         final int threshold,
+                         final long segmentSize) throws IOException {
+        if (threshold == 0 && !Files.isDirectory(directory)) {
+            return null;
+        }
+        Files.createDirectories(directory);
+        final List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+                    .collect(Collectors.toList());
+        }
+        if (threshold == 0 && files.isEmpty()) {
+            return null;
+        }
+        final ValueLog valueLog = new ValueLog(directory, rocksDB, guards, threshold, segmentSize);
+        for (final Path file : files) {
+            final String name = file.getFileName().toString();
+            final int id = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+            valueLog.segments.put(id, Segment.open(id, file));
+            valueLog.nextId = Math.max(valueLog.nextId, id + 1);
+        }
+        return valueLog;
+    }
+
+    /**
+     * Method encodes the value to be written to RocksDB, the large value is appended to the log.
+     * It is called under the guard of the key.
+     * The sync write forces the log, so the value is on the disk before the pointer is.
+     *
+     * @param key        key as stored in RocksDB
+     * @param value      value
+     * @param durability durability of the write
+     * @return pointer to the log or the serialized value
+     * @throws IOException if the log can't be written
+     */
+    byte[] encode(@NotNull final byte[] key,
+                  @NotNull final Value value,
+                  @NotNull final Durability durability) throws IOException {
+        final ByteBuffer data = value.getData();
+        if (threshold == 0 || value.isTombstone() || data.remaining() < threshold) {
+            return value.toBytes();
+        }
+        return append(key, data, value.getTimestamp(), durability == Durability.SYNC);
+    }
+
+    private synchronized byte[] append(final byte[] key,
+                                       final ByteBuffer data,
+                                       final long timestamp,
+                                       final boolean sync) throws IOException {
+        final int length = data.remaining();
+        final ByteBuffer record = ByteBuffer.allocate(Integer.BYTES * 2 + key.length + length)
+                .putInt(key.length)
+                .put(key)
+                .putInt(length)
+                .put(data.duplicate())
+                .flip();
+        if (head == null || head.size > 0 && head.size + record.remaining() > segmentSize) {
+            roll();
+        }
+        final long offset = head.append(record);
+        if (sync) {
+            head.channel.force(false);
+        }
+        return ByteBuffer.allocate(POINTER_SIZE)
+                .putLong(timestamp)
+                .put(POINTER)
+                .putInt(head.id)
+                .putLong(offset + Integer.BYTES * 2 + key.length)
+                .putInt(length)
+                .array();
+    }
+
+    /**
+     * Method seals the head and starts the new one, the sealed head is synced and collected in background.
+     */
+    private void roll() throws IOException {
+        final int id = nextId++;
+        final Segment sealed = head;
+        if (sealed != null) {
+            sealed.channel.force(false);
+        }
+        head = Segment.create(id, directory.resolve(id + SUFFIX));
+        segments.put(id, head);
+        if (sealed != null) {
+            collector.execute(() -> collect(false));
+        }
+    }
+
+    static boolean isPointer(@NotNull final byte[] stored) {
+        return stored.length == POINTER_SIZE && stored[Long.BYTES] == POINTER;
+    }
+
+    /**
+     * Method resolves the value stored in RocksDB.
+     *
+     * @param stored value read from RocksDB
+     * @return value, or null if the pointer refers to the collected segment, so the key should be read again
+     * @throws IOException if the log can't be read
+     */
+    @Nullable
+    Value resolve(@NotNull final byte[] stored) throws IOException {
+        if (!isPointer(stored)) {
+            return Value.fromBytes(stored);
+        }
+        final Segment segment = segments.get(ByteBuffer.wrap(stored).getInt(Value.HEADER_SIZE));
+        if (segment == null || !segment.retain()) {
+            return null;
+        }
+        try {
+            return read(segment, stored);
+        } finally {
+            segment.release();
+        }
+    }
+
+    private static Value read(final Segment segment, final byte[] stored) throws IOException {
+        final ByteBuffer pointer = ByteBuffer.wrap(stored);
+        final long offset = pointer.getLong(Value.HEADER_SIZE + Integer.BYTES);
+        final int length = pointer.getInt(Value.HEADER_SIZE + Integer.BYTES + Long.BYTES);
+        final ByteBuffer data = ByteBuffer.allocate(length);
+        segment.read(data, offset);
+        return Value.present(data.flip(), pointer.getLong(0));
+    }
+
+    /**
+     * Method retains all segments and then opens the scan of RocksDB, so every pointer met by the scan
+     * refers to the retained segment. The scan releases segments by closing the pin.
+     *
+     * @param scan opens the scan resolving values by the pin
+     * @return scan
+     */
+    synchronized <T> T pin(@NotNull final Function<Pin, T> scan) {
+        final List<Segment> retained = new ArrayList<>(segments.size());
+        for (final Segment segment : segments.values()) {
+            if (segment.retain()) {
+                retained.add(segment);
+            }
+        }
+        final Pin pin = new Pin(retained);
+        try {
+            return scan.apply(pin);
+        } catch (RuntimeException e) {
+            pin.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Method collects garbage of sealed segments. Background round examines the next segment after
+     * the previously examined one and collects it if at least half of it is garbage,
+     * full collection seals the head and collects every segment with garbage.
+     *
+     * @param full whether all segments are collected
+     */
+    void collect(final boolean full) {
+        collection.lock();
+        try {
+            if (full) {
+                synchronized (this) {
+                    if (head != null && head.size > 0) {
+                        head.channel.force(false);
+                        head = null;
+                    }
+                }
+                for (final Segment segment : sealed()) {
+                    collect(segment, 0);
+                }
+            } else {
+                final List<Segment> sealed = sealed();
+                Segment next = null;
+                for (final Segment segment : sealed) {
+                    if (segment.id > cursor) {
+                        next = segment;
+                        break;
+                    }
+                }
+                if (next == null && !sealed.isEmpty()) {
+                    next = sealed.get(0);
+                }
+                if (next != null) {
+                    cursor = next.id;
+                    collect(next, GARBAGE_RATIO);
+                }
+            }
+        } catch (IOException | RocksDBException e) {
+            log.error("Value log collection failed", e);
+        } finally {
+            collection.unlock();
+        }
+    }
+
+    /**
+     * Method relocates live values of the segment if its garbage exceeds the ratio, then deletes the segment.
+     */
+    private void collect(final Segment segment, final double ratio) throws IOException, RocksDBException {
+        long live = 0;
+        try (Scan scan = segment.scan()) {
+            for (Record record = scan.next(); record != null; record = scan.next()) {
+                if (isLive(rocksDB.get(reads, record.key), segment.id, record.offset)) {
+                    live += record.length();
+                }
+            }
+        }
+        final long size = segment.size;
+        if (live > 0 && (double) (size - live) / size <= ratio) {
+            return;
+        }
+        try (Scan scan = segment.scan()) {
+            for (Record record = scan.next(); record != null; record = scan.next()) {
+                relocate(segment, record);
+            }
+        }
+        checkpoint();
+        segments.remove(segment.id);
+        segment.retire();
+    }
+
+    /**
+     * Method makes relocated values, their pointers and the writes which made the rest of the segment garbage
+     * durable. Memtables are flushed rather than the write-ahead log synced, since writes may skip the log.
+     */
+    private void checkpoint() throws IOException, RocksDBException {
+        synchronized (this) {
+            if (head != null) {
+                head.channel.force(false);
+            }
+        }
+        rocksDB.flush(flushes);
+    }
+
+    private synchronized List<Segment> sealed() {
+        final List<Segment> sealed = new ArrayList<>(segments.values());
+        sealed.remove(head);
+        return sealed;
+    }
+
+    private void relocate(final Segment segment, final Record record) throws IOException, RocksDBException {
+        final Lock lock = guards.lock(record.key);
+        lock.lock();
+        try {
+            final byte[] stored = rocksDB.get(reads, record.key);
+            if (!isLive(stored, segment.id, record.offset)) {
+                return;
+            }
+            final long timestamp = ByteBuffer.wrap(stored).getLong(0);
+            rocksDB.put(writes, record.key, append(record.key, ByteBuffer.wrap(record.value), timestamp, false));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean isLive(@Nullable final byte[] stored, final int id, final long offset) {
+        if (stored == null || !isPointer(stored)) {
+            return false;
+        }
+        final ByteBuffer pointer = ByteBuffer.wrap(stored);
+        return pointer.getInt(Value.HEADER_SIZE) == id && pointer.getLong(Value.HEADER_SIZE + Integer.BYTES) == offset;
+    }
+
+    @Override
+    public void close() {
+        collector.shutdown();
+        try {
+            collector.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        segments.values().forEach(Segment::release);
+        segments.clear();
+        reads.close();
+        writes.close();
+        flushes.close();
+    }
+
+    /**
+     * Segments retained by the scan of RocksDB.
+     */
+    static final class Pin implements Closeable {
+        private final Map<Integer, Segment> segments;
+
+        private Pin(final List<Segment> segments) {
+            this.segments = segments.stream().collect(Collectors.toMap(segment -> segment.id, segment -> segment));
+        }
+
+        /**
+         * Method resolves the value met by the scan.
+         */
+        Value resolve(@NotNull final byte[] stored) throws IOException {
+            if (!isPointer(stored)) {
+                return Value.fromBytes(stored);
+            }
+            final Segment segment = segments.get(ByteBuffer.wrap(stored).getInt(Value.HEADER_SIZE));
+            if (segment == null) {
+                throw new IOException("Value log segment is missing");
+            }
+            return read(segment, stored);
+        }
+
+        @Override
+        public void close() {
+            segments.values().forEach(Segment::release);
+        }
+    }
+
+    /**
+     * Segment of the log, only the head is appended to.
+     */
+    private static final class Segment {
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private final AtomicInteger references = new AtomicInteger(1);
+        private volatile long size;
+        private volatile boolean retired;
+
+        private Segment(final int id, final Path path, final FileChannel channel, final long size) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        private static Segment open(final int id, final Path path) throws IOException {
+            final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            return new Segment(id, path, channel, channel.size());
+        }
+
+        private static Segment create(final int id, final Path path) throws IOException {
+            return new Segment(id, path, FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE), 0);
+        }
+
+        /**
+         * Method appends the record, it is called under the lock of the log.
+         *
+         * @return offset of the record
+         */
+        private long append(final ByteBuffer record) throws IOException {
+            final long offset = size;
+            long position = offset;
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+            size = position;
+            return offset;
+        }
+
+        private void read(final ByteBuffer buffer, final long offset) throws IOException {
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                final int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of " + path);
+                }
+                position += read;
+            }
+        }
+
+        private Scan scan() throws IOException {
+            return new Scan(new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(path), BUFFER_SIZE)), size);
+        }
+
+        private boolean retain() {
+            while (true) {
+                final int count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void release() {
+            if (references.decrementAndGet() != 0) {
+                return;
+            }
+            try {
+                channel.close();
+                if (retired) {
+                    Files.deleteIfExists(path);
+                }
+            } catch (IOException e) {
+                log.warn("Can't release value log segment {}", path, e);
+            }
+        }
+
+        private void retire() {
+            retired = true;
+            release();
+        }
+    }
+
+    /**
+     * Sequential reader of records, the record torn by the crash ends the segment.
+     */
+    private static final class Scan implements Closeable {
+        private final DataInputStream input;
+        private final long size;
+        private long position;
+
+        private Scan(final DataInputStream input, final long size) {
+            this.input = input;
+            this.size = size;
+        }
+
+        @Nullable
+        private Record next() throws IOException {
+            if (position >= size) {
+                return null;
+            }
+            try {
+                final byte[] key = new byte[input.readInt()];
+                input.readFully(key);
+                final byte[] value = new byte[input.readInt()];
+                final long offset = position + Integer.BYTES * 2 + key.length;
+                input.readFully(value);
+                position = offset + value.length;
+                return new Record(key, value, offset);
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+
+    private static final class Record {
+        private final byte[] key;
+        private final byte[] value;
+        private final long offset;
+
+        private Record(final byte[] key, final byte[] value, final long offset) {
+            this.key = key;
+            this.value = value;
+            this.offset = offset;
+        }
+
+        private long length() {
+            return Integer.BYTES * 2L + key.length + value.length;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package ru.mail.polis.dao.physhock;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.Durability;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of the memtable of {@link LsmDAO}: {@code [length][checksum][cells]...},
+ * each record holds the cells of one write serialized by {@link Cell#toBytes()}.
+ * The log is deleted once its memtable is flushed, logs left by the crash are replayed on open.
+ * The record torn by the crash fails the checksum, so the replay stops at it.
+ */
+final class WriteAheadLog {
+
+    static final String SUFFIX = ".wal";
+
+    private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final FileChannel channel;
+
+    private WriteAheadLog(final Path path, final FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    static WriteAheadLog create(@NotNull final Path path) throws IOException {
+        return new WriteAheadLog(path, FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * Method logs the write and applies it to the memtable under the lock of the log,
+     * so records are replayed in the order the memtable got them.
+     * The write which skips the log is applied under the lock too.
+     *
+     * @param cells      cells of the write
+     * @param durability durability of the write, the sync write returns once the log is on the disk
+     * @param apply      puts the cells into the memtable
+     * @throws IOException if the log can't be written, the memtable is not touched then
+     */
+    void write(@NotNull final List<Cell> cells,
+               @NotNull final Durability durability,
+               @NotNull final Runnable apply) throws IOException {
+        synchronized (this) {
+            if (durability != Durability.NONE) {
+                append(cells);
+            }
+            apply.run();
+        }
+        if (durability == Durability.SYNC) {
+            channel.force(false);
+        }
+    }
+
+    private void append(final List<Cell> cells) throws IOException {
+        int length = 0;
+        final byte[][] serialized = new byte[cells.size()][];
+        for (int i = 0; i < serialized.length; i++) {
+            serialized[i] = cells.get(i).toBytes();
+            length += serialized[i].length;
+        }
+        final ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length)
+                .putInt(length)
+                .putInt(0);
+        final CRC32 checksum = new CRC32();
+        for (final byte[] cell : serialized) {
+            record.put(cell);
+            checksum.update(cell);
+        }
+        record.putInt(Integer.BYTES, (int) checksum.getValue()).flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+    }
+
+    /**
+     * Method reads cells of the log left by the crash in the order they were written.
+     *
+     * @param path  file of the log
+     * @param cells receives cells of whole records
+     * @throws IOException if the log can't be read
+     */
+    static void replay(@NotNull final Path path, @NotNull final Consumer<Cell> cells) throws IOException {
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            long remaining = Files.size(path);
+            while (remaining > 0) {
+                final byte[] payload = remaining < HEADER_SIZE ? null : read(input, remaining - HEADER_SIZE);
+                if (payload == null) {
+                    log.warn("Torn tail of {} bytes is dropped from {}", remaining, path);
+                    return;
+                }
+                remaining -= HEADER_SIZE + payload.length;
+                final DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                for (Cell cell = Cell.read(record); cell != null; cell = Cell.read(record)) {
+                    cells.accept(cell);
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Corrupted log " + path, e);
+        }
+    }
+
+    /**
+     * Method reads the payload of the record.
+     *
+     * @return payload, or null if the record is torn
+     */
+    @Nullable
+    private static byte[] read(final DataInputStream input, final long available) throws IOException {
+        final int length = input.readInt();
+        final int expected = input.readInt();
+        if (length < 0 || length > available) {
+            return null;
+        }
+        final byte[] payload = new byte[length];
+        input.readFully(payload);
+        final CRC32 checksum = new CRC32();
+        checksum.update(payload);
+        return (int) checksum.getValue() == expected ? payload : null;
+    }
+
+    /**
+     * Method deletes the log once its memtable is on the disk.
+     */
+    void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Method closes the log keeping the file, so it is replayed on open.
+     */
+    void close() throws IOException {
+        channel.close();
+    }
+}
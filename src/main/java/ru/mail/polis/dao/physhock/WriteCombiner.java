@@ -0,0 +1,126 @@
+package ru.mail.polis.dao.physhock;
+
+import org.jetbrains.annotations.NotNull;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Group commit of concurrent writes.
+ * Writer enqueues its write and takes the lock. Lock owner commits all queued writes
+ * in one batch, so writers queued meanwhile find their writes done.
+ * Batch grows with concurrency and a lone writer doesn't wait for others.
+ */
+final class WriteCombiner implements Closeable {
+
+    private final RocksDB rocksDB;
+    private final WriteOptions options;
+    private final long maxBatchBytes;
+    private final long windowNanos;
+    private final Queue<Write> queue = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Combiner of writes to the storage.
+     *
+     * @param rocksDB       storage
+     * @param options       options of batches, they are closed together with the combiner
+     * @param maxBatchBytes size of keys and values in one batch after which the rest waits for the next one
+     * @param window        time the committer waits for more writes, zero means no waiting
+     */
+    WriteCombiner(@NotNull final RocksDB rocksDB,
+                  @NotNull final WriteOptions options,
+                  final long maxBatchBytes,
+                  final long window,
+                  final TimeUnit unit) {
+        this.rocksDB = rocksDB;
+        this.options = options;
+        this.maxBatchBytes = maxBatchBytes;
+        this.windowNanos = unit.toNanos(window);
+    }
+
+    /**
+     * Method returns when the write is committed by this or another thread.
+     *
+     * @param key   encoded key
+     * @param value serialized value
+     * @throws IOException if batch with the write failed
+     */
+    void write(@NotNull final byte[] key, @NotNull final byte[] value) throws IOException {
+        final Write write = new Write(key, value);
+        queue.add(write);
+        lock.lock();
+        try {
+            if (!write.done && windowNanos > 0) {
+                LockSupport.parkNanos(windowNanos);
+            }
+            while (!write.done) {
+                commit();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (write.error != null) {
+            throw new IOException("Batch with the write failed", write.error);
+        }
+    }
+
+    /**
+     * Method commits queued writes, they are done even if the batch throws, so their writers don't spin.
+     */
+    private void commit() {
+        final List<Write> batched = new ArrayList<>();
+        Throwable failure = null;
+        try (WriteBatch batch = new WriteBatch()) {
+            long bytes = 0;
+            Write write;
+            while (bytes < maxBatchBytes && (write = queue.poll()) != null) {
+                batched.add(write);
+                batch.put(write.key, write.value);
+                bytes += write.key.length + write.value.length;
+            }
+            rocksDB.write(options, batch);
+        } catch (RocksDBException | RuntimeException e) {
+            failure = e;
+        } catch (Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            for (final Write write : batched) {
+                write.error = failure;
+                write.done = true;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        options.close();
+    }
+
+    /**
+     * Queued write, its state is guarded by the combiner lock.
+     */
+    private static final class Write {
+        private final byte[] key;
+        private final byte[] value;
+        private boolean done;
+        private Throwable error;
+
+        private Write(final byte[] key, final byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
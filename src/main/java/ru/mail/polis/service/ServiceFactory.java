@@ -19,12 +19,18 @@ package ru.mail.polis.service;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.jetbrains.annotations.NotNull;
 import ru.mail.polis.dao.DAO;
+import ru.mail.polis.service.physhock.ConsistentHashingTopology;
+import ru.mail.polis.service.physhock.JdkNodeClient;
+import ru.mail.polis.service.physhock.NodeClient;
+import ru.mail.polis.service.physhock.OneNioNodeClient;
+import ru.mail.polis.service.physhock.RendezvousTopology;
+import ru.mail.polis.service.physhock.RpcNodeClient;
 import ru.mail.polis.service.physhock.ServiceImpl;
-import ru.mail.polis.service.physhock.SimpleTopology;
 import ru.mail.polis.service.physhock.Topology;
 
 import java.io.IOException;
 import java.net.http.HttpClient;
+import java.time.Duration;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -36,6 +42,11 @@ import java.util.concurrent.Executors;
  */
 public final class ServiceFactory {
     private static final long MAX_HEAP = 256 * 1024 * 1024;
+    private static final int VNODES = 128;
+    private static final String TOPOLOGY_PROPERTY = "dht.topology";
+    private static final String TRANSPORT_PROPERTY = "dht.transport";
+    private static final Duration PROXY_TIMEOUT = Duration.ofSeconds(1);
+    private static final int RPC_PORT_OFFSET = 1000;
 
     private ServiceFactory() {
         // Not supposed to be instantiated
@@ -64,9 +75,49 @@ public final class ServiceFactory {
 
         final ExecutorService service = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
                 new ThreadFactoryBuilder().setNameFormat("slave-%d").build());
-        final Topology<String> simpleOne = new SimpleTopology("http://localhost:" + port, topology);
-        final HttpClient client = HttpClient.newHttpClient();
+        final Topology<String> nodes = createTopology("http://localhost:" + port, topology);
+        final NodeClient client = createClient(nodes, service);
 
-        return new ServiceImpl(port, dao, service, client, simpleOne);
+        return new ServiceImpl(port, dao, service, client, nodes);
+    }
+
+    /**
+     * Creates transport between nodes chosen by {@code dht.transport} system property:
+     * {@code one-nio} (default), {@code jdk} or {@code rpc} (binary protocol on http port + 1000).
+     */
+    @NotNull
+    private static NodeClient createClient(
+            @NotNull final Topology<String> topology,
+            @NotNull final ExecutorService service) {
+        final String kind = System.getProperty(TRANSPORT_PROPERTY, "one-nio");
+        switch (kind) {
+            case "one-nio":
+                return new OneNioNodeClient(topology, Runtime.getRuntime().availableProcessors(), PROXY_TIMEOUT);
+            case "jdk":
+                return new JdkNodeClient(HttpClient.newHttpClient(), PROXY_TIMEOUT);
+            case "rpc":
+                return new RpcNodeClient(topology, RPC_PORT_OFFSET, service, PROXY_TIMEOUT);
+            default:
+                throw new IllegalArgumentException("Unknown transport: " + kind);
+        }
+    }
+
+    /**
+     * Creates topology chosen by {@code dht.topology} system property:
+     * {@code ring} (default) or {@code rendezvous}.
+     */
+    @NotNull
+    private static Topology<String> createTopology(
+            @NotNull final String me,
+            @NotNull final Set<String> topology) {
+        final String kind = System.getProperty(TOPOLOGY_PROPERTY, "ring");
+        switch (kind) {
+            case "ring":
+                return new ConsistentHashingTopology(me, topology, VNODES);
+            case "rendezvous":
+                return new RendezvousTopology(me, topology);
+            default:
+                throw new IllegalArgumentException("Unknown topology: " + kind);
+        }
     }
 }
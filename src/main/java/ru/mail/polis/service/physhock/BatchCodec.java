@@ -0,0 +1,153 @@
+package ru.mail.polis.service.physhock;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.Value;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bodies of batch requests. Every key and value is prefixed by its length:
+ * <ul>
+ *     <li>keys: {@code [key length][key]...}</li>
+ *     <li>mutations: {@code [upsert or remove][key length][key][value length][value]...},
+ *     value of remove is empty</li>
+ *     <li>found entries: {@code [key length][key][value length][value]...}</li>
+ *     <li>cells between nodes: serialized {@link Cell}s including tombstones</li>
+ * </ul>
+ */
+final class BatchCodec {
+
+    static final byte UPSERT = 0;
+    static final byte REMOVE = 1;
+
+    private BatchCodec() {
+    }
+
+    static byte[] encodeKeys(@NotNull final Collection<ByteBuffer> keys) {
+        int size = 0;
+        for (final ByteBuffer key : keys) {
+            size += Integer.BYTES + key.remaining();
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (final ByteBuffer key : keys) {
+            buffer.putInt(key.remaining()).put(key.duplicate());
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Method reads keys of the batch.
+     *
+     * @param body request body
+     * @return keys in the request order
+     * @throws IllegalArgumentException if body is malformed or some key is empty
+     */
+    static List<ByteBuffer> decodeKeys(@NotNull final byte[] body) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final List<ByteBuffer> keys = new ArrayList<>();
+        try {
+            while (buffer.hasRemaining()) {
+                keys.add(key(buffer));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Malformed batch", e);
+        }
+        return keys;
+    }
+
+    /**
+     * Method reads mutations of the batch as cells written at the same time.
+     *
+     * @param body      request body
+     * @param timestamp write timestamp
+     * @return cells in the request order
+     * @throws IllegalArgumentException if body is malformed or some key is empty
+     */
+    static List<Cell> decodeMutations(@NotNull final byte[] body, final long timestamp) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final List<Cell> cells = new ArrayList<>();
+        try {
+            while (buffer.hasRemaining()) {
+                final byte operation = buffer.get();
+                final ByteBuffer key = key(buffer);
+                final ByteBuffer value = slice(buffer, buffer.getInt());
+                switch (operation) {
+                    case UPSERT:
+                        cells.add(Cell.of(key, Value.present(value, timestamp)));
+                        break;
+                    case REMOVE:
+                        cells.add(Cell.of(key, Value.tombstone(timestamp)));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown operation " + operation);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Malformed batch", e);
+        }
+        return cells;
+    }
+
+    static byte[] encodeEntries(@NotNull final Map<ByteBuffer, ByteBuffer> entries) {
+        int size = 0;
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : entries.entrySet()) {
+            size += Integer.BYTES * 2 + entry.getKey().remaining() + entry.getValue().remaining();
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : entries.entrySet()) {
+            buffer.putInt(entry.getKey().remaining()).put(entry.getKey().duplicate());
+            buffer.putInt(entry.getValue().remaining()).put(entry.getValue().duplicate());
+        }
+        return buffer.array();
+    }
+
+    static byte[] encodeCells(@NotNull final Collection<Cell> cells) {
+        final List<byte[]> serialized = new ArrayList<>(cells.size());
+        int size = 0;
+        for (final Cell cell : cells) {
+            final byte[] bytes = cell.toBytes();
+            serialized.add(bytes);
+            size += bytes.length;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        serialized.forEach(buffer::put);
+        return buffer.array();
+    }
+
+    static List<Cell> decodeCells(@NotNull final byte[] body) throws IOException {
+        final List<Cell> cells = new ArrayList<>();
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(body))) {
+            for (Cell cell = Cell.read(input); cell != null; cell = Cell.read(input)) {
+                cells.add(cell);
+            }
+        }
+        return cells;
+    }
+
+    private static ByteBuffer key(final ByteBuffer buffer) {
+        final ByteBuffer key = slice(buffer, buffer.getInt());
+        if (!key.hasRemaining()) {
+            throw new IllegalArgumentException("Empty key");
+        }
+        return key;
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buffer, final int length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Malformed batch");
+        }
+        final ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+}
@@ -0,0 +1,251 @@
+package ru.mail.polis.service.physhock;
+
+import one.nio.http.Request;
+import one.nio.http.Response;
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.DAO;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Coordinates batch requests: keys are grouped by their replicas,
+ * so each node gets one sub-batch with all its keys.
+ * Written batch is stamped once by the coordinator, replicas get cells with the same timestamp.
+ * The batch is answered as soon as every key got {@code ack} answers, like the single key
+ * by {@link Futures#firstSuccessful}, so slow replicas don't hold it.
+ */
+final class BatchCoordinator {
+
+    static final String GET_PATH = "/v0/entities/batch";
+    static final String WRITE_PATH = "/v0/batch";
+
+    private final DAO dao;
+    private final Executor executor;
+    private final Topology<String> topology;
+    private final NodeClient client;
+
+    BatchCoordinator(@NotNull final DAO dao,
+                     @NotNull final Executor executor,
+                     @NotNull final Topology<String> topology,
+                     @NotNull final NodeClient client) {
+        this.dao = dao;
+        this.executor = executor;
+        this.topology = topology;
+        this.client = client;
+    }
+
+    /**
+     * Method reads local cells of the sub-batch for the coordinator.
+     *
+     * @param keys keys of the sub-batch
+     * @return response with found cells including tombstones
+     * @throws IOException if storage fails
+     */
+    Response getLocally(@NotNull final List<ByteBuffer> keys) throws IOException {
+        return new Response(Response.OK, BatchCodec.encodeCells(cells(keys)));
+    }
+
+    /**
+     * Method reads keys from their replicas and chooses the newest value of each key.
+     *
+     * @param keys     requested keys
+     * @param replicas replication factor applied to each key
+     * @return future of response with found entries in the request order,
+     *     or 504 if some key got less than {@code ack} answers
+     */
+    CompletableFuture<Response> get(@NotNull final List<ByteBuffer> keys, @NotNull final Replicas replicas) {
+        final Set<ByteBuffer> distinct = new LinkedHashSet<>(keys);
+        final Map<String, List<ByteBuffer>> byNode = groupByReplicas(distinct, key -> key, replicas.getFrom());
+        final Quorum quorum = new Quorum(distinct.size(), replicas);
+        final Map<ByteBuffer, Cell> newest = new ConcurrentHashMap<>();
+        byNode.forEach((node, nodeKeys) -> readFrom(node, nodeKeys).whenComplete((cells, error) -> {
+            if (error == null) {
+                for (final Cell cell : cells) {
+                    newest.merge(cell.getKey(), cell, (a, b) -> Cell.NEWEST_FIRST.compare(a, b) <= 0 ? a : b);
+                }
+            }
+            quorum.answer(nodeKeys, error == null);
+        }));
+        return quorum.reached()
+                .thenApply(ignored -> entries(keys, newest))
+                .exceptionally(e -> new Response(ServiceImpl.NOT_ENOUGH_REPLICAS, Response.EMPTY));
+    }
+
+    /**
+     * Method writes the batch locally, the sub-batch is applied atomically.
+     *
+     * @param cells cells of the sub-batch
+     * @return created response
+     * @throws IOException if storage fails
+     */
+    Response writeLocally(@NotNull final List<Cell> cells) throws IOException {
+        dao.apply(cells);
+        return new Response(Response.CREATED, Response.EMPTY);
+    }
+
+    /**
+     * Method sends each replica one sub-batch with all its cells.
+     *
+     * @param cells    cells of the batch in the request order
+     * @param replicas replication factor applied to each key
+     * @return future of created response, or 504 if some key was written to less than {@code ack} replicas
+     */
+    CompletableFuture<Response> write(@NotNull final List<Cell> cells, @NotNull final Replicas replicas) {
+        final Map<String, List<Cell>> byNode = groupByReplicas(cells, Cell::getKey, replicas.getFrom());
+        final Quorum quorum = new Quorum((int) cells.stream().map(Cell::getKey).distinct().count(), replicas);
+        byNode.forEach((node, nodeCells) -> writeTo(node, nodeCells).whenComplete((written, error) -> {
+            final Set<ByteBuffer> nodeKeys = new HashSet<>();
+            nodeCells.forEach(cell -> nodeKeys.add(cell.getKey()));
+            quorum.answer(nodeKeys, error == null && written);
+        }));
+        return quorum.reached()
+                .thenApply(ignored -> new Response(Response.CREATED, Response.EMPTY))
+                .exceptionally(e -> new Response(ServiceImpl.NOT_ENOUGH_REPLICAS, Response.EMPTY));
+    }
+
+    private <T> Map<String, List<T>> groupByReplicas(final Collection<T> items,
+                                                     final Function<T, ByteBuffer> key,
+                                                     final int from) {
+        final Map<String, List<T>> byNode = new HashMap<>();
+        for (final T item : items) {
+            for (final String node : topology.replicasFor(key.apply(item), from)) {
+                byNode.computeIfAbsent(node, n -> new ArrayList<>()).add(item);
+            }
+        }
+        return byNode;
+    }
+
+    private CompletableFuture<Boolean> writeTo(final String node, final List<Cell> cells) {
+        if (topology.isMe(node)) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    dao.apply(cells);
+                    return true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor);
+        }
+        return client.sendBatch(node, subBatch(WRITE_PATH, BatchCodec.encodeCells(cells)))
+                .thenApply(response -> response.getStatus() == 201);
+    }
+
+    private CompletableFuture<List<Cell>> readFrom(final String node, final List<ByteBuffer> keys) {
+        if (topology.isMe(node)) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return cells(keys);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor);
+        }
+        return client.sendBatch(node, subBatch(GET_PATH, BatchCodec.encodeKeys(keys)))
+                .thenApply(response -> {
+                    try {
+                        if (response.getStatus() != 200) {
+                            throw new IOException("Batch on " + node + " failed with " + response.getStatus());
+                        }
+                        return BatchCodec.decodeCells(response.getBody());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    private List<Cell> cells(final List<ByteBuffer> keys) throws IOException {
+        final List<Cell> cells = new ArrayList<>();
+        dao.getAll(keys).forEach((key, value) -> cells.add(Cell.of(key, value)));
+        return cells;
+    }
+
+    static Request subBatch(final String path, final byte[] body) {
+        final Request request = new Request(Request.METHOD_POST, path, true);
+        request.addHeader(ServiceImpl.SKYNET_CHECK_NAME + ": true");
+        request.addHeader("Content-Length: " + body.length);
+        request.setBody(body);
+        return request;
+    }
+
+    /**
+     * Method answers the newest cells of keys found by replicas answered so far.
+     * Tombstone wins over the value written at the same time, see {@link Cell#NEWEST_FIRST}.
+     */
+    private static Response entries(final List<ByteBuffer> keys, final Map<ByteBuffer, Cell> newest) {
+        final Map<ByteBuffer, ByteBuffer> entries = new LinkedHashMap<>();
+        for (final ByteBuffer key : keys) {
+            final Cell cell = newest.get(key);
+            if (cell != null && !cell.getValue().isTombstone()) {
+                entries.put(key, cell.getValue().getData());
+            }
+        }
+        return new Response(Response.OK, BatchCodec.encodeEntries(entries));
+    }
+
+    /**
+     * Answers of replicas counted per key. It is reached once every key got {@code ack} successful answers
+     * and fails once some key got more failed answers than {@code from - ack}.
+     */
+    private static final class Quorum {
+        private final Map<ByteBuffer, Integer> acks = new HashMap<>();
+        private final Map<ByteBuffer, Integer> failures = new HashMap<>();
+        private final CompletableFuture<Void> reached = new CompletableFuture<>();
+        private final int ack;
+        private final int maxFailures;
+        private int waiting;
+
+        Quorum(final int keys, final Replicas replicas) {
+            this.ack = replicas.getAck();
+            this.maxFailures = replicas.getFrom() - replicas.getAck();
+            this.waiting = keys;
+            if (keys == 0) {
+                reached.complete(null);
+            }
+        }
+
+        /**
+         * Method counts the answer of the replica to each of its keys.
+         *
+         * @param keys    distinct keys of the replica
+         * @param success whether the replica answered successfully
+         */
+        synchronized void answer(final Collection<ByteBuffer> keys, final boolean success) {
+            if (reached.isDone()) {
+                return;
+            }
+            for (final ByteBuffer key : keys) {
+                if (success) {
+                    if (acks.merge(key, 1, Integer::sum) == ack) {
+                        waiting--;
+                    }
+                } else if (failures.merge(key, 1, Integer::sum) > maxFailures) {
+                    reached.completeExceptionally(new IllegalStateException("Not enough replicas"));
+                    return;
+                }
+            }
+            if (waiting == 0) {
+                reached.complete(null);
+            }
+        }
+
+        CompletableFuture<Void> reached() {
+            return reached;
+        }
+    }
+}
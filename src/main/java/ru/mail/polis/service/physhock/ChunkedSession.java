@@ -1,26 +1,67 @@
 package ru.mail.polis.service.physhock;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.Iterators;
 import one.nio.http.HttpServer;
 import one.nio.http.HttpSession;
 import one.nio.http.Response;
 import one.nio.net.Socket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import ru.mail.polis.Record;
-import ru.mail.polis.dao.physhock.ByteBufferUtils;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.CloseableIterator;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.Executor;
 
+/**
+ * Session which streams ranges with chunked transfer encoding.
+ * Payloads are packed into reusable buffers, so one chunk holds many records
+ * and the record may be split between the chunks.
+ * Iteration runs on the worker executor, the selector thread only writes ready chunks.
+ * Number of buffers bounds the amount of data produced ahead of the socket.
+ * The range is closed when it is over or the client disconnects.
+ */
 public class ChunkedSession extends HttpSession {
 
-    private Iterator<Record> iterator;
+    private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final int MAX_CHUNK_PAYLOAD = 64 * 1024;
+    private static final int BUFFERS = 4;
     private static final byte[] RN = "\r\n".getBytes(Charsets.UTF_8);
     private static final byte[] N = "\n".getBytes(Charsets.UTF_8);
     private static final byte[] EMPTY = "0\r\n\r\n".getBytes(Charsets.UTF_8);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(Charsets.UTF_8);
+    private static final int CHUNK_HEADER = Integer.BYTES * 2 + RN.length;
 
-    public ChunkedSession(final Socket socket, final HttpServer server) {
+    private final Executor executor;
+    private final Queue<byte[]> free = new ArrayDeque<>(BUFFERS);
+    private final Queue<Chunk> ready = new ArrayDeque<>(BUFFERS);
+    private int buffers;
+    private byte[] inFlight;
+    private boolean streaming;
+    private boolean producing;
+    private boolean exhausted;
+
+    private CloseableIterator<?> source;
+    private Iterator<ByteBuffer> parts;
+    private ByteBuffer part;
+
+    /**
+     * Session for streaming ranges.
+     *
+     * @param socket   client socket
+     * @param server   server owning the session
+     * @param executor executor which iterates over the ranges
+     */
+    public ChunkedSession(final Socket socket, final HttpServer server, final Executor executor) {
         super(socket, server);
+        this.executor = executor;
     }
 
     /**
@@ -30,47 +71,213 @@ public class ChunkedSession extends HttpSession {
      * @param iterator iterator
      * @throws IOException if smth goes wrong
      */
-    public void stream(final Iterator<Record> iterator) throws IOException {
-        this.iterator = iterator;
+    public void stream(final CloseableIterator<Record> iterator) throws IOException {
+        streamParts(iterator, Iterators.concat(Iterators.transform(iterator, ChunkedSession::makePayload)));
+    }
+
+    /**
+     * Method streams cells including tombstones in binary form for other nodes.
+     *
+     * @param iterator iterator
+     * @throws IOException if smth goes wrong
+     * @see Cell#toBytes()
+     */
+    public void streamCells(final CloseableIterator<Cell> iterator) throws IOException {
+        streamParts(iterator, Iterators.transform(iterator, cell -> ByteBuffer.wrap(cell.toBytes())));
+    }
+
+    private synchronized void streamParts(final CloseableIterator<?> source,
+                                          final Iterator<ByteBuffer> parts) throws IOException {
+        this.source = source;
+        this.parts = parts;
+        this.part = null;
+        streaming = true;
+        exhausted = false;
 
         final Response response = new Response(Response.OK);
         response.addHeader("Transfer-Encoding: chunked");
-        writeResponse(response, false);
+        try {
+            writeResponse(response, false);
+        } catch (IOException e) {
+            streaming = false;
+            release();
+            throw e;
+        }
+
+        resume();
+    }
+
+    private static Iterator<ByteBuffer> makePayload(final Record record) {
+        return Iterators.forArray(record.getKey(), ByteBuffer.wrap(N), record.getValue());
+    }
+
+    /**
+     * Method schedules the producer if it is idle and has a free buffer to fill.
+     */
+    private void resume() {
+        if (!producing && !exhausted && (!free.isEmpty() || buffers < BUFFERS)) {
+            producing = true;
+            executor.execute(this::produce);
+        }
+    }
 
-        next();
+    /**
+     * Method closes the range. It is called only while the producer is idle,
+     * because the source may not be closed concurrently with the iteration.
+     */
+    private void release() {
+        if (source != null) {
+            try {
+                source.close();
+            } catch (RuntimeException e) {
+                log.error("Can't close the range", e);
+            }
+            source = null;
+        }
     }
 
-    private byte[] makeChunk(final Record record) {
-        final byte[] key = ByteBufferUtils.getByteArray(record.getKey());
-        final byte[] value = ByteBufferUtils.getByteArray(record.getValue());
+    /**
+     * Method fills free buffers with chunks until buffers or the range are over.
+     * Iteration runs without the session lock, so it may block on the disk or other nodes.
+     */
+    private void produce() {
+        while (true) {
+            final byte[] buffer;
+            synchronized (this) {
+                buffer = streaming ? takeBuffer() : null;
+                if (buffer == null) {
+                    producing = false;
+                    if (!streaming) {
+                        release();
+                    }
+                    return;
+                }
+            }
+            final int size;
+            final boolean last;
+            try {
+                size = fill(buffer);
+                last = !hasRemaining();
+            } catch (RuntimeException e) {
+                log.error("Range iteration failed", e);
+                synchronized (this) {
+                    producing = false;
+                }
+                close();
+                return;
+            }
+            synchronized (this) {
+                if (!streaming) {
+                    free.add(buffer);
+                    producing = false;
+                    release();
+                    return;
+                }
+                if (size > 0) {
+                    ready.add(frame(buffer, size));
+                } else {
+                    free.add(buffer);
+                }
+                if (last) {
+                    exhausted = true;
+                    producing = false;
+                    release();
+                }
+                try {
+                    flush();
+                } catch (IOException e) {
+                    log.warn("Can't write the range, client has gone", e);
+                    producing = false;
+                    close();
+                    return;
+                }
+                if (last) {
+                    return;
+                }
+            }
+        }
+    }
 
-        final int size = key.length + value.length + N.length;
-        final byte[] hexSize = Integer.toHexString(size).getBytes(Charsets.UTF_8);
-        final int len = size + hexSize.length + 2 * RN.length;
+    /**
+     * Method allocates buffers lazily, so short ranges take only one of them.
+     */
+    private byte[] takeBuffer() {
+        if (free.isEmpty() && buffers < BUFFERS) {
+            buffers++;
+            return new byte[CHUNK_HEADER + MAX_CHUNK_PAYLOAD + RN.length];
+        }
+        return free.poll();
+    }
 
-        final byte[] res = new byte[len];
-        final ByteBuffer buffer = ByteBuffer.wrap(res);
+    private boolean hasRemaining() {
+        return part != null && part.hasRemaining() || parts.hasNext();
+    }
 
-        buffer.put(hexSize);
-        buffer.put(RN);
-        buffer.put(key);
-        buffer.put(N);
-        buffer.put(value);
-        buffer.put(RN);
+    /**
+     * Method copies payload parts into the buffer right after the space reserved for the chunk header.
+     *
+     * @return size of the copied payload
+     */
+    private int fill(final byte[] buffer) {
+        final int limit = CHUNK_HEADER + MAX_CHUNK_PAYLOAD;
+        int position = CHUNK_HEADER;
+        while (position < limit) {
+            if (part == null || !part.hasRemaining()) {
+                if (!parts.hasNext()) {
+                    break;
+                }
+                part = parts.next();
+                continue;
+            }
+            final int length = Math.min(part.remaining(), limit - position);
+            part.get(buffer, position, length);
+            position += length;
+        }
+        return position - CHUNK_HEADER;
+    }
 
-        return res;
+    /**
+     * Method frames the payload in place: hex size goes right before it, CRLF right after it.
+     *
+     * @param size positive payload size
+     */
+    private static Chunk frame(final byte[] buffer, final int size) {
+        int offset = CHUNK_HEADER - RN.length;
+        System.arraycopy(RN, 0, buffer, offset, RN.length);
+        for (int rest = size; rest != 0; rest >>>= 4) {
+            buffer[--offset] = HEX[rest & 0xF];
+        }
+        final int end = CHUNK_HEADER + size;
+        System.arraycopy(RN, 0, buffer, end, RN.length);
+        return new Chunk(buffer, offset, end + RN.length);
     }
 
-    private void next() throws IOException {
-        while (iterator.hasNext() && queueHead == null) {
-            final Record record = iterator.next();
-            final byte[] chunk = makeChunk(record);
-            write(chunk, 0, chunk.length);
+    /**
+     * Method writes ready chunks while the socket accepts them.
+     * Buffer of the written chunk is referenced by the write queue until it is empty,
+     * only then the buffer goes back to the producer.
+     */
+    private void flush() throws IOException {
+        while (streaming && queueHead == null) {
+            if (inFlight != null) {
+                free.add(inFlight);
+                inFlight = null;
+                resume();
+            }
+            final Chunk chunk = ready.poll();
+            if (chunk == null) {
+                break;
+            }
+            write(chunk.buffer, chunk.offset, chunk.end - chunk.offset);
+            inFlight = chunk.buffer;
         }
-        if (iterator.hasNext()) {
-            return;
+        if (streaming && exhausted && ready.isEmpty()) {
+            finish();
         }
+    }
 
+    private void finish() throws IOException {
+        streaming = false;
         write(EMPTY, 0, EMPTY.length);
 
         server.incRequestsProcessed();
@@ -86,6 +293,30 @@ public class ChunkedSession extends HttpSession {
     @Override
     protected void processWrite() throws Exception {
         super.processWrite();
-        next();
+        synchronized (this) {
+            flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        streaming = false;
+        ready.clear();
+        if (!producing) {
+            release();
+        }
+        super.close();
+    }
+
+    private static final class Chunk {
+        private final byte[] buffer;
+        private final int offset;
+        private final int end;
+
+        private Chunk(final byte[] buffer, final int offset, final int end) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.end = end;
+        }
     }
 }
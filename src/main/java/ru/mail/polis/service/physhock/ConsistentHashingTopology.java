@@ -0,0 +1,109 @@
+package ru.mail.polis.service.physhock;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Consistent hashing ring with virtual nodes.
+ * Adding or removing node moves only about 1/N of the keys.
+ */
+public class ConsistentHashingTopology implements Topology<String> {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final String thisNode;
+    private final String[] allNodes;
+    private final long[] tokens;
+    private final int[] owners;
+
+    /**
+     * Class for serving sharding features.
+     *
+     * @param thisNode current node
+     * @param allNodes list of all nodes
+     * @param vnodes   number of virtual nodes per each node
+     */
+    public ConsistentHashingTopology(final String thisNode, final Set<String> allNodes, final int vnodes) {
+        if (vnodes <= 0) {
+            throw new IllegalArgumentException("Number of virtual nodes should be positive");
+        }
+        this.thisNode = thisNode;
+        this.allNodes = new String[allNodes.size()];
+        allNodes.toArray(this.allNodes);
+        Arrays.sort(this.allNodes);
+
+        final long[][] ring = new long[this.allNodes.length * vnodes][];
+        for (int node = 0; node < this.allNodes.length; node++) {
+            for (int vnode = 0; vnode < vnodes; vnode++) {
+                final long token = HASH.hashString(this.allNodes[node] + '#' + vnode, Charsets.UTF_8).asLong();
+                ring[node * vnodes + vnode] = new long[]{token, node};
+            }
+        }
+        Arrays.sort(ring, (a, b) -> a[0] == b[0] ? Long.compare(a[1], b[1]) : Long.compare(a[0], b[0]));
+
+        this.tokens = new long[ring.length];
+        this.owners = new int[ring.length];
+        for (int i = 0; i < ring.length; i++) {
+            tokens[i] = ring[i][0];
+            owners[i] = (int) ring[i][1];
+        }
+    }
+
+    @Override
+    public boolean isMe(final String node) {
+        return node.equals(thisNode);
+    }
+
+    @Override
+    public String calculateFor(final ByteBuffer key) {
+        return allNodes[owners[tokenIndex(key)]];
+    }
+
+    @Override
+    public String findNextNode(final ByteBuffer key, final int offset) {
+        final List<String> replicas = replicasFor(key, offset + 1);
+        return replicas.get(offset);
+    }
+
+    /**
+     * Method walks the ring clockwise from the key token collecting distinct physical nodes.
+     */
+    @Override
+    public List<String> replicasFor(final ByteBuffer key, final int count) {
+        if (count > allNodes.length) {
+            throw new IllegalArgumentException("Not enough nodes for " + count + " replicas");
+        }
+        final List<String> replicas = new ArrayList<>(count);
+        final boolean[] taken = new boolean[allNodes.length];
+        for (int i = tokenIndex(key); replicas.size() < count; i = (i + 1) % tokens.length) {
+            final int owner = owners[i];
+            if (!taken[owner]) {
+                taken[owner] = true;
+                replicas.add(allNodes[owner]);
+            }
+        }
+        return replicas;
+    }
+
+    private int tokenIndex(final ByteBuffer key) {
+        final long hash = HASH.hashBytes(key.duplicate()).asLong();
+        final int index = Arrays.binarySearch(tokens, hash);
+        if (index >= 0) {
+            return index;
+        }
+        final int insertionPoint = -index - 1;
+        return insertionPoint == tokens.length ? 0 : insertionPoint;
+    }
+
+    @Override
+    public Set<String> all() {
+        return Set.of(allNodes);
+    }
+}
@@ -0,0 +1,56 @@
+package ru.mail.polis.service.physhock;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Utility methods for futures.
+ */
+final class Futures {
+
+    private Futures() {
+    }
+
+    /**
+     * Method returns future which completes as soon as {@code ack} of given futures
+     * completed successfully, without waiting for the rest of them.
+     * Completes exceptionally when it is no longer possible to collect {@code ack} results.
+     *
+     * @param futures futures to wait for
+     * @param ack     required number of successful results
+     * @param success predicate which checks that result is successful
+     * @param <T>     type of results
+     * @return future of first {@code ack} successful results
+     */
+    static <T> CompletableFuture<List<T>> firstSuccessful(@NotNull final List<CompletableFuture<T>> futures,
+                                                          final int ack,
+                                                          @NotNull final Predicate<T> success) {
+        final CompletableFuture<List<T>> result = new CompletableFuture<>();
+        final List<T> collected = new ArrayList<>(ack);
+        final AtomicInteger failures = new AtomicInteger();
+        final int maxFailures = futures.size() - ack;
+
+        for (final CompletableFuture<T> future : futures) {
+            future.whenComplete((value, error) -> {
+                if (error == null && success.test(value)) {
+                    synchronized (collected) {
+                        if (collected.size() < ack) {
+                            collected.add(value);
+                            if (collected.size() == ack) {
+                                result.complete(new ArrayList<>(collected));
+                            }
+                        }
+                    }
+                } else if (failures.incrementAndGet() > maxFailures) {
+                    result.completeExceptionally(new IllegalStateException("Not enough replicas"));
+                }
+            });
+        }
+        return result;
+    }
+}
@@ -0,0 +1,96 @@
+package ru.mail.polis.service.physhock;
+
+import one.nio.http.Request;
+import one.nio.http.Response;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.CloseableIterator;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transport built on asynchronous {@link HttpClient} from JDK.
+ */
+public class JdkNodeClient implements NodeClient {
+
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("content-length", "host", "connection");
+
+    private final HttpClient client;
+    private final Duration timeout;
+
+    /**
+     * Creates transport.
+     *
+     * @param client  http client
+     * @param timeout request timeout
+     */
+    public JdkNodeClient(final HttpClient client, final Duration timeout) {
+        this.client = client;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public CompletableFuture<Response> send(final String node, final Request request) {
+        return client.sendAsync(convertRequest(node, request), HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(JdkNodeClient::convertHttpResponse);
+    }
+
+    @Override
+    public CompletableFuture<CloseableIterator<Cell>> range(final String node,
+                                                            final String start,
+                                                            final String end,
+                                                            final String snapshot) {
+        return StreamingRange.open(client, node, StreamingRange.query(start, end, snapshot), timeout);
+    }
+
+    private HttpRequest convertRequest(final String node, final Request request) {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(node + request.getURI()))
+                .timeout(timeout)
+                .method(convertRequestMethod(request), request.getBody() == null
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofByteArray(request.getBody()));
+        final String[] headers = request.getHeaders();
+        for (int i = 0; i < request.getHeaderCount(); i++) {
+            final int colon = headers[i].indexOf(':');
+            final String name = headers[i].substring(0, colon);
+            if (!RESTRICTED_HEADERS.contains(name.toLowerCase())) {
+                builder.header(name, headers[i].substring(colon + 1).trim());
+            }
+        }
+        return builder.build();
+    }
+
+    private static String convertRequestMethod(final Request request) {
+        switch (request.getMethod()) {
+            case Request.METHOD_GET:
+                return "GET";
+            case Request.METHOD_POST:
+                return "POST";
+            case Request.METHOD_PUT:
+                return "PUT";
+            case Request.METHOD_DELETE:
+                return "DELETE";
+            default:
+                throw new IllegalArgumentException("Unsupported method " + request.getMethod());
+        }
+    }
+
+    private static Response convertHttpResponse(final HttpResponse<byte[]> httpResponse) {
+        final Response response = new Response(String.valueOf(httpResponse.statusCode()), httpResponse.body());
+        httpResponse.headers()
+                .firstValue(ServiceImpl.TIMESTAMP_NAME)
+                .ifPresent(timestamp -> response.addHeader(ServiceImpl.TIMESTAMP + timestamp));
+        return response;
+    }
+
+    @Override
+    public void close() {
+        // JDK client has no resources to release explicitly
+    }
+}
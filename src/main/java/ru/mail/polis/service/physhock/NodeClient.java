@@ -0,0 +1,88 @@
+package ru.mail.polis.service.physhock;
+
+import one.nio.http.Request;
+import one.nio.http.Response;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.Durability;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Transport for requests between nodes of the cluster.
+ */
+public interface NodeClient extends Closeable {
+
+    /**
+     * Method sends request to the node. The same request may be sent to several nodes at once,
+     * so implementations should not modify it.
+     *
+     * @param node    node to send request to
+     * @param request request
+     * @return future of the node response
+     */
+    CompletableFuture<Response> send(String node, Request request);
+
+    /**
+     * Method opens streaming range of the node local data including tombstones.
+     *
+     * @param node     node to request range from
+     * @param start    start key (inclusive)
+     * @param end      end key (exclusive) or null
+     * @param snapshot token of the view to read from or null for the current data, see {@link Snapshots}
+     * @return future of the range
+     */
+    CompletableFuture<CloseableIterator<Cell>> range(
+            String node,
+            String start,
+            @Nullable String end,
+            @Nullable String snapshot);
+
+    /**
+     * Method sends the request other than to the single key, e.g. the sub-batch of the batch request
+     * or the request to the snapshot. Transports with the protocol for single keys send them over http.
+     *
+     * @param node    node
+     * @param request sub-batch or snapshot request
+     * @return future of the node response
+     */
+    default CompletableFuture<Response> sendBatch(String node, Request request) {
+        return send(node, request);
+    }
+
+    /**
+     * Method starts accepting requests from other nodes if transport needs its own endpoint.
+     *
+     * @param handler handler of requests to the local replica
+     * @throws IOException if endpoint can not be started
+     */
+    default void start(final LocalHandler handler) throws IOException {
+        // Requests from other nodes come through the http server
+    }
+
+    @Override
+    void close();
+
+    /**
+     * Handler of requests to the local replica.
+     */
+    @FunctionalInterface
+    interface LocalHandler {
+        Response handle(int method, ByteBuffer key, byte[] body, long timestamp, Durability durability)
+                throws IOException;
+
+        /**
+         * Method answers the request right on the network thread if it needs no disk reads.
+         *
+         * @return false without calling the answer if the request should be handled on the executor
+         */
+        default boolean handleInMemory(int method, ByteBuffer key, Consumer<Response> answer) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package ru.mail.polis.service.physhock;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import one.nio.http.HttpClient;
+import one.nio.http.HttpException;
+import one.nio.http.Request;
+import one.nio.http.Response;
+import one.nio.net.ConnectionString;
+import one.nio.pool.PoolException;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.CloseableIterator;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Transport built on one-nio {@link HttpClient} with bounded connection pool per each peer.
+ * Blocking calls are made on the executor of the transport, it is shut down together with the pools.
+ * Ranges are streamed by JDK client, see {@link StreamingRange}.
+ */
+public class OneNioNodeClient implements NodeClient {
+
+    private final Map<String, HttpClient> clients;
+    private final java.net.http.HttpClient streamingClient = java.net.http.HttpClient.newHttpClient();
+    private final Duration timeout;
+    private final ExecutorService executor;
+
+    /**
+     * Creates connection pools to all other nodes of the cluster and threads for blocking calls to them.
+     *
+     * @param topology cluster topology
+     * @param poolSize max number of connections per each peer
+     * @param timeout  connect, read and pool borrow timeout
+     */
+    public OneNioNodeClient(final Topology<String> topology,
+                            final int poolSize,
+                            final Duration timeout) {
+        this.executor = Executors.newFixedThreadPool(poolSize * topology.all().size(),
+                new ThreadFactoryBuilder().setNameFormat("proxy-%d").setDaemon(true).build());
+        this.timeout = timeout;
+        this.clients = topology.all()
+                .stream()
+                .filter(node -> !topology.isMe(node))
+                .collect(Collectors.toMap(node -> node, node -> new HttpClient(new ConnectionString(
+                        node + "?clientMaxPoolSize=" + poolSize + "&timeout=" + timeout.toMillis()))));
+    }
+
+    @Override
+    public CompletableFuture<Response> send(final String node, final Request request) {
+        final HttpClient client = clients.get(node);
+        if (client == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Unknown node " + node));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return client.invoke(request, (int) timeout.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            } catch (IOException | PoolException | HttpException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<CloseableIterator<Cell>> range(final String node,
+                                                            final String start,
+                                                            final String end,
+                                                            final String snapshot) {
+        return StreamingRange.open(streamingClient, node, StreamingRange.query(start, end, snapshot), timeout);
+    }
+
+    @Override
+    public void close() {
+        clients.values().forEach(HttpClient::close);
+        executor.shutdown();
+    }
+}
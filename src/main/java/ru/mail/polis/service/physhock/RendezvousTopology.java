@@ -0,0 +1,189 @@
+package ru.mail.polis.service.physhock;
+
+import com.google.common.base.Charsets;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rendezvous (highest random weight) hashing.
+ * Replicas of the key are the nodes with the highest scores, so a smaller
+ * replica set is always a prefix of the bigger one.
+ * Scores are computed into per-thread primitive arrays and replica lists are cached by the ranked order,
+ * so routing does not allocate.
+ */
+public class RendezvousTopology implements Topology<String> {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int MAX_CACHED_LISTS = 4096;
+
+    private final String thisNode;
+    private final String[] allNodes;
+    private final long[] seeds;
+    private final ThreadLocal<long[]> scores;
+    private final ThreadLocal<int[]> order;
+    private final List<String>[][] replicaLists;
+
+    /**
+     * Class for serving sharding features.
+     *
+     * @param thisNode current node
+     * @param allNodes list of all nodes
+     */
+    @SuppressWarnings("unchecked")
+    public RendezvousTopology(final String thisNode, final Set<String> allNodes) {
+        this.thisNode = thisNode;
+        this.allNodes = new String[allNodes.size()];
+        allNodes.toArray(this.allNodes);
+        Arrays.sort(this.allNodes);
+
+        this.seeds = new long[this.allNodes.length];
+        for (int i = 0; i < seeds.length; i++) {
+            final byte[] name = this.allNodes[i].getBytes(Charsets.UTF_8);
+            seeds[i] = hash(ByteBuffer.wrap(name));
+        }
+        final int size = this.allNodes.length;
+        this.scores = ThreadLocal.withInitial(() -> new long[size]);
+        this.order = ThreadLocal.withInitial(() -> new int[size]);
+        this.replicaLists = new List[size + 1][];
+        long orders = 1;
+        for (int count = 1; count <= size; count++) {
+            orders *= size;
+            if (orders > MAX_CACHED_LISTS) {
+                break;
+            }
+            replicaLists[count] = new List[(int) orders];
+        }
+    }
+
+    @Override
+    public boolean isMe(final String node) {
+        return node.equals(thisNode);
+    }
+
+    @Override
+    public String calculateFor(final ByteBuffer key) {
+        final long keyHash = hash(key);
+        int best = 0;
+        long bestScore = score(keyHash, 0);
+        for (int i = 1; i < seeds.length; i++) {
+            final long score = score(keyHash, i);
+            if (score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return allNodes[best];
+    }
+
+    @Override
+    public String findNextNode(final ByteBuffer key, final int offset) {
+        return allNodes[rank(key, offset + 1)[offset]];
+    }
+
+    /**
+     * Method returns the immutable list shared by all keys of the same ranked order.
+     * Lists are built once per order, the race of builders is benign since the lists are immutable.
+     * Orders of too many nodes are not cached, their lists are built per call.
+     */
+    @Override
+    public List<String> replicasFor(final ByteBuffer key, final int count) {
+        final int[] ranked = rank(key, count);
+        final List<String>[] lists = replicaLists[count];
+        if (lists == null) {
+            return toList(ranked, count);
+        }
+        int index = 0;
+        for (int i = 0; i < count; i++) {
+            index = index * allNodes.length + ranked[i];
+        }
+        List<String> replicas = lists[index];
+        if (replicas == null) {
+            replicas = toList(ranked, count);
+            lists[index] = replicas;
+        }
+        return replicas;
+    }
+
+    private List<String> toList(final int[] ranked, final int count) {
+        final String[] replicas = new String[count];
+        for (int i = 0; i < count; i++) {
+            replicas[i] = allNodes[ranked[i]];
+        }
+        return List.of(replicas);
+    }
+
+    /**
+     * Method puts indexes of {@code count} nodes with the highest scores into the head
+     * of the per-thread order array using partial selection sort.
+     *
+     * @param key   key
+     * @param count number of nodes to rank
+     * @return per-thread array which first {@code count} elements are ranked node indexes
+     */
+    private int[] rank(final ByteBuffer key, final int count) {
+        if (count > allNodes.length) {
+            throw new IllegalArgumentException("Not enough nodes for " + count + " replicas");
+        }
+        final long keyHash = hash(key);
+        final long[] score = scores.get();
+        final int[] ranked = order.get();
+        for (int i = 0; i < score.length; i++) {
+            score[i] = score(keyHash, i);
+            ranked[i] = i;
+        }
+        for (int i = 0; i < count; i++) {
+            int best = i;
+            for (int j = i + 1; j < ranked.length; j++) {
+                if (score[j] > score[best]) {
+                    best = j;
+                }
+            }
+            swap(score, ranked, i, best);
+        }
+        return ranked;
+    }
+
+    private static void swap(final long[] score, final int[] ranked, final int i, final int j) {
+        final long tmpScore = score[i];
+        score[i] = score[j];
+        score[j] = tmpScore;
+        final int tmpIndex = ranked[i];
+        ranked[i] = ranked[j];
+        ranked[j] = tmpIndex;
+    }
+
+    private long score(final long keyHash, final int node) {
+        return mix(keyHash ^ seeds[node]);
+    }
+
+    private static long hash(final ByteBuffer key) {
+        long hash = FNV_OFFSET;
+        for (int i = key.position(); i < key.limit(); i++) {
+            hash ^= key.get(i);
+            hash *= FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Finalization mix of MurmurHash3, spreads every input bit over the whole result.
+     */
+    private static long mix(final long value) {
+        long result = value;
+        result ^= result >>> 33;
+        result *= 0xff51afd7ed558ccdL;
+        result ^= result >>> 33;
+        result *= 0xc4ceb9fe1a85ec53L;
+        result ^= result >>> 33;
+        return result;
+    }
+
+    @Override
+    public Set<String> all() {
+        return Set.of(allNodes);
+    }
+}
@@ -0,0 +1,56 @@
+package ru.mail.polis.service.physhock;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Replication factor in the {@code ack/from} form.
+ */
+final class Replicas {
+
+    private final int ack;
+    private final int from;
+
+    private Replicas(final int ack, final int from) {
+        this.ack = ack;
+        this.from = from;
+    }
+
+    /**
+     * Default replication factor: quorum from all nodes of the cluster.
+     *
+     * @param clusterSize number of nodes in the cluster
+     * @return replication factor
+     */
+    static Replicas quorum(final int clusterSize) {
+        return new Replicas(clusterSize / 2 + 1, clusterSize);
+    }
+
+    /**
+     * Method parses {@code ack/from} replicas parameter.
+     *
+     * @param replicas    parameter value
+     * @param clusterSize number of nodes in the cluster
+     * @return replication factor
+     * @throws IllegalArgumentException if parameter is malformed or out of range
+     */
+    static Replicas parse(@NotNull final String replicas, final int clusterSize) {
+        final int slash = replicas.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Wrong replicas format: " + replicas);
+        }
+        final int ack = Integer.parseInt(replicas.substring(0, slash));
+        final int from = Integer.parseInt(replicas.substring(slash + 1));
+        if (ack < 1 || ack > from || from > clusterSize) {
+            throw new IllegalArgumentException("Wrong replicas value: " + replicas);
+        }
+        return new Replicas(ack, from);
+    }
+
+    int getAck() {
+        return ack;
+    }
+
+    int getFrom() {
+        return from;
+    }
+}
@@ -0,0 +1,297 @@
+package ru.mail.polis.service.physhock;
+
+import com.google.common.base.Charsets;
+import one.nio.http.Request;
+import one.nio.http.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.Durability;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Transport built on the binary protocol over the internal port of each node,
+ * which is the http port shifted by the fixed offset.
+ * There is one connection per peer and requests are multiplexed over it by request id.
+ * Callers only queue frames, the writer thread of the connection writes them,
+ * so the selector thread never blocks on the socket of the peer.
+ * Ranges are streamed and batches are sent over http by JDK client, see {@link StreamingRange}.
+ *
+ * @see RpcProtocol
+ */
+public class RpcNodeClient implements NodeClient {
+
+    private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final int MAX_QUEUED_FRAMES = 4096;
+    private static final int MAX_GATHERED_FRAMES = 64;
+
+    private final Map<String, InetSocketAddress> peers;
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+    private final AtomicLong requestIds = new AtomicLong();
+    private final HttpClient streamingClient = HttpClient.newHttpClient();
+    private final NodeClient http;
+    private final int port;
+    private final Executor executor;
+    private final Duration timeout;
+    private RpcServer server;
+
+    /**
+     * Creates transport to all other nodes of the cluster.
+     *
+     * @param topology   cluster topology
+     * @param portOffset offset of the internal port from the http port
+     * @param executor   executor for handling requests from other nodes
+     * @param timeout    connect and request timeout
+     */
+    public RpcNodeClient(final Topology<String> topology,
+                         final int portOffset,
+                         final Executor executor,
+                         final Duration timeout) {
+        this.executor = executor;
+        this.timeout = timeout;
+        this.http = new JdkNodeClient(streamingClient, timeout);
+        this.port = topology.all()
+                .stream()
+                .filter(topology::isMe)
+                .mapToInt(node -> URI.create(node).getPort() + portOffset)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("This node is not in topology"));
+        this.peers = topology.all()
+                .stream()
+                .filter(node -> !topology.isMe(node))
+                .collect(Collectors.toMap(node -> node, node -> {
+                    final URI uri = URI.create(node);
+                    return new InetSocketAddress(uri.getHost(), uri.getPort() + portOffset);
+                }));
+    }
+
+    @Override
+    public void start(final LocalHandler handler) throws IOException {
+        server = new RpcServer(port, handler, executor);
+        server.start();
+    }
+
+    @Override
+    public CompletableFuture<Response> send(final String node, final Request request) {
+        final String id = request.getParameter("id=");
+        final String timestamp = request.getHeader(ServiceImpl.TIMESTAMP);
+        final byte[] body = request.getBody();
+        final ByteBuffer frame;
+        final long requestId = requestIds.incrementAndGet();
+        try {
+            frame = RpcProtocol.request(
+                    RpcProtocol.opcode(request.getMethod(),
+                            Durability.parse(request.getParameter(ServiceImpl.DURABILITY + '='))),
+                    requestId,
+                    timestamp == null ? System.currentTimeMillis() : Long.parseLong(timestamp),
+                    id.getBytes(Charsets.UTF_8),
+                    body == null ? Response.EMPTY : body);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return connection(node).thenCompose(connection -> connection.send(requestId, frame));
+    }
+
+    @Override
+    public CompletableFuture<Response> sendBatch(final String node, final Request request) {
+        return http.send(node, request);
+    }
+
+    @Override
+    public CompletableFuture<CloseableIterator<Cell>> range(final String node,
+                                                            final String start,
+                                                            final String end,
+                                                            final String snapshot) {
+        return StreamingRange.open(streamingClient, node, StreamingRange.query(start, end, snapshot), timeout);
+    }
+
+    /**
+     * Method returns open connection to the node, new connection is established on the executor.
+     */
+    private CompletableFuture<Connection> connection(final String node) {
+        final Connection existing = connections.get(node);
+        if (existing != null && existing.isOpen()) {
+            return CompletableFuture.completedFuture(existing);
+        }
+        final InetSocketAddress address = peers.get(node);
+        if (address == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Unknown node " + node));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            synchronized (connections) {
+                final Connection current = connections.get(node);
+                if (current != null && current.isOpen()) {
+                    return current;
+                }
+                try {
+                    final Connection connection = new Connection(node, address);
+                    connections.put(node, connection);
+                    return connection;
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }
+        }, executor);
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop();
+        }
+        connections.values().forEach(Connection::close);
+    }
+
+    /**
+     * Connection to the peer with the writer thread, which writes queued frames by gathering writes,
+     * and the reader thread, which completes pending requests.
+     */
+    private final class Connection {
+        private final String node;
+        private final SocketChannel channel;
+        private final Map<Long, CompletableFuture<Response>> pending = new ConcurrentHashMap<>();
+        private final BlockingQueue<ByteBuffer> outgoing = new ArrayBlockingQueue<>(MAX_QUEUED_FRAMES);
+        private final Thread writer;
+
+        Connection(final String node, final InetSocketAddress address) throws IOException {
+            this.node = node;
+            this.channel = SocketChannel.open();
+            try {
+                channel.socket().connect(address, (int) timeout.toMillis());
+                channel.socket().setTcpNoDelay(true);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            this.writer = new Thread(this::write, "rpc-writer-" + address.getPort());
+            writer.setDaemon(true);
+            writer.start();
+            final Thread reader = new Thread(this::read, "rpc-reader-" + address.getPort());
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        /**
+         * Method queues the request without blocking, the pending response is dropped once it comes or times out.
+         * The request fails at once if too many frames wait for the writer.
+         */
+        CompletableFuture<Response> send(final long requestId, final ByteBuffer frame) {
+            final CompletableFuture<Response> future = new CompletableFuture<>();
+            pending.put(requestId, future);
+            future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                    .whenComplete((response, error) -> pending.remove(requestId));
+            if (!outgoing.offer(frame)) {
+                future.completeExceptionally(new IOException("Too many requests to " + node));
+            } else if (!channel.isOpen()) {
+                future.completeExceptionally(closed());
+            }
+            return future;
+        }
+
+        /**
+         * Method writes all frames queued meanwhile at once, so concurrent requests share the system call.
+         */
+        private void write() {
+            final List<ByteBuffer> drained = new ArrayList<>(MAX_GATHERED_FRAMES);
+            final ByteBuffer[] frames = new ByteBuffer[MAX_GATHERED_FRAMES];
+            try {
+                while (channel.isOpen()) {
+                    drained.add(outgoing.take());
+                    outgoing.drainTo(drained, MAX_GATHERED_FRAMES - 1);
+                    final int count = drained.size();
+                    drained.toArray(frames);
+                    drained.clear();
+                    int first = 0;
+                    while (first < count) {
+                        channel.write(frames, first, count - first);
+                        while (first < count && !frames[first].hasRemaining()) {
+                            first++;
+                        }
+                    }
+                    Arrays.fill(frames, 0, count, null);
+                }
+            } catch (IOException e) {
+                if (channel.isOpen()) {
+                    log.error("Can't write to {}", node, e);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        private void read() {
+            try (DataInputStream input = new DataInputStream(Channels.newInputStream(channel))) {
+                while (channel.isOpen()) {
+                    final int length = input.readInt();
+                    RpcProtocol.checkLength(length, RpcProtocol.RESPONSE_HEADER_SIZE);
+                    final long requestId = input.readLong();
+                    final int status = input.readInt();
+                    final long timestamp = input.readLong();
+                    final byte[] body = new byte[length - RpcProtocol.RESPONSE_HEADER_SIZE];
+                    input.readFully(body);
+
+                    final CompletableFuture<Response> future = pending.get(requestId);
+                    if (future != null) {
+                        final Response response = new Response(String.valueOf(status), body);
+                        if (timestamp != RpcProtocol.NO_TIMESTAMP) {
+                            response.addHeader(ServiceImpl.TIMESTAMP + timestamp);
+                        }
+                        future.complete(response);
+                    }
+                }
+            } catch (IOException | IllegalStateException e) {
+                if (channel.isOpen()) {
+                    log.error("Connection to {} is broken", node, e);
+                }
+            } finally {
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error("Can't close connection to {}", node, e);
+            }
+            writer.interrupt();
+            outgoing.clear();
+            final IOException closed = closed();
+            pending.values().forEach(future -> future.completeExceptionally(closed));
+        }
+
+        private IOException closed() {
+            return new IOException("Connection to " + node + " is closed");
+        }
+    }
+}
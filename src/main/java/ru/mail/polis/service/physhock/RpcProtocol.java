@@ -0,0 +1,110 @@
+package ru.mail.polis.service.physhock;
+
+import one.nio.http.Request;
+import ru.mail.polis.dao.Durability;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary protocol of requests between nodes.
+ * Every frame is prefixed with its length and carries the request id,
+ * so many requests may be in flight over one connection at the same time.
+ *
+ * <p>Request: {@code [length][opcode][request id][timestamp][key length][key][value]},
+ * the low bits of the opcode are the method and the high ones are the durability of the write.
+ * <br>Response: {@code [length][request id][status][timestamp][value]}.
+ */
+final class RpcProtocol {
+
+    static final int LENGTH_SIZE = Integer.BYTES;
+    static final int REQUEST_HEADER_SIZE = 1 + Long.BYTES + Long.BYTES + Integer.BYTES;
+    static final int RESPONSE_HEADER_SIZE = Long.BYTES + Integer.BYTES + Long.BYTES;
+    static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private static final byte OP_GET = 1;
+    private static final byte OP_PUT = 2;
+    private static final byte OP_DELETE = 3;
+    private static final int METHOD_MASK = 0x0F;
+    private static final int DURABILITY_SHIFT = 4;
+
+    private RpcProtocol() {
+    }
+
+    static byte opcode(final int method, final Durability durability) {
+        return (byte) (op(method) | durability.ordinal() << DURABILITY_SHIFT);
+    }
+
+    private static byte op(final int method) {
+        switch (method) {
+            case Request.METHOD_GET:
+                return OP_GET;
+            case Request.METHOD_PUT:
+                return OP_PUT;
+            case Request.METHOD_DELETE:
+                return OP_DELETE;
+            default:
+                throw new IllegalArgumentException("Unsupported method " + method);
+        }
+    }
+
+    static int method(final byte opcode) {
+        switch (opcode & METHOD_MASK) {
+            case OP_GET:
+                return Request.METHOD_GET;
+            case OP_PUT:
+                return Request.METHOD_PUT;
+            case OP_DELETE:
+                return Request.METHOD_DELETE;
+            default:
+                throw new IllegalArgumentException("Unknown opcode " + opcode);
+        }
+    }
+
+    static Durability durability(final byte opcode) {
+        final int ordinal = (opcode & 0xFF) >>> DURABILITY_SHIFT;
+        final Durability[] durabilities = Durability.values();
+        if (ordinal >= durabilities.length) {
+            throw new IllegalArgumentException("Unknown opcode " + opcode);
+        }
+        return durabilities[ordinal];
+    }
+
+    static ByteBuffer request(final byte opcode,
+                              final long requestId,
+                              final long timestamp,
+                              final byte[] key,
+                              final byte[] value) {
+        final int length = REQUEST_HEADER_SIZE + key.length + value.length;
+        final ByteBuffer frame = ByteBuffer.allocate(LENGTH_SIZE + length)
+                .putInt(length)
+                .put(opcode)
+                .putLong(requestId)
+                .putLong(timestamp)
+                .putInt(key.length)
+                .put(key)
+                .put(value);
+        return frame.flip();
+    }
+
+    static byte[] response(final long requestId,
+                           final int status,
+                           final long timestamp,
+                           final byte[] value) {
+        final int length = RESPONSE_HEADER_SIZE + value.length;
+        final byte[] frame = new byte[LENGTH_SIZE + length];
+        ByteBuffer.wrap(frame)
+                .putInt(length)
+                .putLong(requestId)
+                .putInt(status)
+                .putLong(timestamp)
+                .put(value);
+        return frame;
+    }
+
+    static void checkLength(final int length, final int headerSize) {
+        if (length < headerSize || length > MAX_FRAME_SIZE) {
+            throw new IllegalStateException("Wrong frame length " + length);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package ru.mail.polis.service.physhock;
+
+import one.nio.net.Socket;
+import one.nio.server.AcceptorConfig;
+import one.nio.server.Server;
+import one.nio.server.ServerConfig;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Server of the binary protocol between nodes.
+ *
+ * @see RpcProtocol
+ */
+public class RpcServer extends Server {
+
+    private final NodeClient.LocalHandler handler;
+    private final Executor executor;
+
+    /**
+     * Server constructor.
+     *
+     * @param port     internal port
+     * @param handler  handler of requests to the local replica
+     * @param executor executor for handling requests
+     * @throws IOException internal error
+     */
+    public RpcServer(final int port,
+                     final NodeClient.LocalHandler handler,
+                     final Executor executor) throws IOException {
+        super(getConfig(port));
+        this.handler = handler;
+        this.executor = executor;
+    }
+
+    private static ServerConfig getConfig(final int port) {
+        final ServerConfig config = new ServerConfig();
+        final AcceptorConfig acceptorConfig = new AcceptorConfig();
+        acceptorConfig.port = port;
+        config.acceptors = new AcceptorConfig[]{acceptorConfig};
+        return config;
+    }
+
+    @Override
+    public RpcSession createSession(final Socket socket) {
+        return new RpcSession(socket, handler, executor);
+    }
+}
@@ -0,0 +1,147 @@
+package ru.mail.polis.service.physhock;
+
+import one.nio.http.Response;
+import one.nio.net.Session;
+import one.nio.net.Socket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.dao.Durability;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Session of the binary protocol between nodes.
+ * Frames are parsed on the selector thread. Reads answered from memory are handled right there,
+ * the rest goes to the executor. Responses are written back in order of completion.
+ */
+public class RpcSession extends Session {
+
+    private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final NodeClient.LocalHandler handler;
+    private final Executor executor;
+    private ByteBuffer incoming = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    RpcSession(final Socket socket,
+               final NodeClient.LocalHandler handler,
+               final Executor executor) {
+        super(socket);
+        this.handler = handler;
+        this.executor = executor;
+    }
+
+    @Override
+    protected void processRead(final byte[] buffer) throws IOException {
+        final int read = read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return;
+        }
+        ensureCapacity(read);
+        incoming.put(buffer, 0, read);
+        incoming.flip();
+        while (incoming.remaining() >= RpcProtocol.LENGTH_SIZE) {
+            final int length = incoming.getInt(incoming.position());
+            RpcProtocol.checkLength(length, RpcProtocol.REQUEST_HEADER_SIZE);
+            if (incoming.remaining() < RpcProtocol.LENGTH_SIZE + length) {
+                break;
+            }
+            incoming.position(incoming.position() + RpcProtocol.LENGTH_SIZE);
+            final byte[] frame = new byte[length];
+            incoming.get(frame);
+            dispatch(ByteBuffer.wrap(frame));
+        }
+        incoming.compact();
+    }
+
+    private void ensureCapacity(final int size) {
+        if (incoming.remaining() < size) {
+            final int capacity = Math.max(incoming.capacity() * 2, incoming.position() + size);
+            final ByteBuffer bigger = ByteBuffer.allocate(capacity);
+            incoming.flip();
+            bigger.put(incoming);
+            incoming = bigger;
+        }
+    }
+
+    /**
+     * Method handles the frame, the malformed one is answered with 400 and the failed one with 500,
+     * so the peer doesn't wait for the response till the timeout.
+     */
+    private void dispatch(final ByteBuffer frame) {
+        final byte opcode = frame.get();
+        final long requestId = frame.getLong();
+        final int method;
+        final Durability durability;
+        final long timestamp;
+        final ByteBuffer key;
+        final byte[] value;
+        try {
+            method = RpcProtocol.method(opcode);
+            durability = RpcProtocol.durability(opcode);
+            timestamp = frame.getLong();
+            final int keyLength = frame.getInt();
+            key = frame.slice().limit(keyLength);
+            frame.position(frame.position() + keyLength);
+            value = new byte[frame.remaining()];
+            frame.get(value);
+        } catch (RuntimeException e) {
+            log.warn("Malformed request from node", e);
+            reply(status(requestId, 400));
+            return;
+        }
+        try {
+            if (handler.handleInMemory(method, key, response -> reply(toFrame(requestId, response)))) {
+                return;
+            }
+            executor.execute(() -> handle(requestId, () -> handler.handle(method, key, value, timestamp, durability)));
+        } catch (RejectedExecutionException e) {
+            log.warn("Request from node is rejected", e);
+            reply(status(requestId, 503));
+        } catch (RuntimeException e) {
+            log.error("Can't handle request from node", e);
+            reply(status(requestId, 500));
+        }
+    }
+
+    private void handle(final long requestId, final Call call) {
+        byte[] response;
+        try {
+            response = toFrame(requestId, call.call());
+        } catch (IOException | RuntimeException e) {
+            log.error("Can't handle request from node", e);
+            response = status(requestId, 500);
+        }
+        reply(response);
+    }
+
+    private static byte[] status(final long requestId, final int status) {
+        return RpcProtocol.response(requestId, status, RpcProtocol.NO_TIMESTAMP, Response.EMPTY);
+    }
+
+    private void reply(final byte[] response) {
+        try {
+            write(response, 0, response.length);
+        } catch (IOException e) {
+            log.error("Can't answer to node", e);
+        }
+    }
+
+    private static byte[] toFrame(final long requestId, final Response response) {
+        final String timestamp = response.getHeader(ServiceImpl.TIMESTAMP);
+        return RpcProtocol.response(
+                requestId,
+                response.getStatus(),
+                timestamp == null ? RpcProtocol.NO_TIMESTAMP : Long.parseLong(timestamp),
+                response.getBody());
+    }
+
+    @FunctionalInterface
+    private interface Call {
+        Response call() throws IOException;
+    }
+}
@@ -1,6 +1,7 @@
 package ru.mail.polis.service.physhock;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.Iterators;
 import one.nio.http.HttpServer;
 import one.nio.http.HttpServerConfig;
 import one.nio.http.HttpSession;
@@ -11,34 +12,33 @@ import one.nio.http.RequestMethod;
 import one.nio.http.Response;
 import one.nio.net.Socket;
 import one.nio.server.AcceptorConfig;
-import one.nio.util.Utf8;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.mail.polis.Record;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.CloseableIterator;
 import ru.mail.polis.dao.DAO;
-import ru.mail.polis.dao.physhock.ByteBufferUtils;
-import ru.mail.polis.dao.physhock.NoSuchElementExceptionLite;
+import ru.mail.polis.dao.Durability;
+import ru.mail.polis.dao.Iters;
+import ru.mail.polis.dao.Value;
 import ru.mail.polis.service.Service;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.lang.invoke.MethodHandles;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.nio.ByteBuffer;
+import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 /**
  * Implementation of Service.
@@ -47,12 +47,21 @@ public class ServiceImpl extends HttpServer implements Service {
 
     private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
     private static final Response BAD_REQUEST = new Response(Response.BAD_REQUEST, Response.EMPTY);
-    private static final String SKYNET_CHECK = "Request from node";
+    static final String SKYNET_CHECK_NAME = "X-Request-From-Node";
+    private static final String SKYNET_CHECK = SKYNET_CHECK_NAME + ": ";
+    static final String NOT_ENOUGH_REPLICAS = "504 Not Enough Replicas";
+    static final String TIMESTAMP_NAME = "X-Timestamp";
+    static final String TIMESTAMP = TIMESTAMP_NAME + ": ";
+    static final String DURABILITY = "durability";
+    static final String SNAPSHOT = "snapshot";
+    static final String SNAPSHOT_PATH = "/v0/snapshot";
     private final DAO dao;
     private final Executor executor;
     private final Topology<String> topology;
-    private final HttpClient client;
-    private final Map<String, HttpRequest> nodes;
+    private final NodeClient client;
+    private final BatchCoordinator batches;
+    private final WriteStats writes = new WriteStats();
+    private final Snapshots snapshots;
 
     /**
      * Server constructor.
@@ -60,23 +69,22 @@ public class ServiceImpl extends HttpServer implements Service {
      * @param port     server port
      * @param dao      dao ( RocksDB dao)
      * @param executor executor service
+     * @param client   transport for requests to other nodes
+     * @param topology cluster topology
      * @throws IOException internal error
      */
     public ServiceImpl(final int port, final DAO dao,
                        final Executor executor,
-                       final HttpClient client,
+                       final NodeClient client,
                        final Topology<String> topology
     ) throws IOException {
         super(getConfig(port), dao);
         this.dao = dao;
         this.executor = executor;
         this.client = client;
+        this.batches = new BatchCoordinator(dao, executor, topology, client);
+        this.snapshots = new Snapshots(dao);
         this.topology = topology;
-        this.nodes = topology
-                .all()
-                .stream()
-                .collect(Collectors.toMap(node -> node, node ->
-                        HttpRequest.newBuilder().uri(URI.create(node)).build()));
     }
 
     @NotNull
@@ -89,7 +97,8 @@ public class ServiceImpl extends HttpServer implements Service {
     }
 
     /**
-     * Method returns current server status.
+     * Method returns current server status with the memory taken by the storage,
+     * local writes by durability and the number of open snapshots.
      *
      * @param request http request
      * @return current status
@@ -97,111 +106,300 @@ public class ServiceImpl extends HttpServer implements Service {
     @Path("/v0/status")
     @RequestMethod(Request.METHOD_GET)
     public Response getStatus(@NotNull final Request request) {
-        return new Response(Response.OK, "I am alive!\n".getBytes(Charset.defaultCharset()));
+        final StringBuilder status = new StringBuilder("I am alive!\n");
+        dao.memoryUsage().forEach((kind, bytes) -> status.append("memory.").append(kind)
+                .append(": ").append(bytes).append('\n'));
+        writes.report().forEach((kind, value) -> status.append("writes.").append(kind)
+                .append(": ").append(value).append('\n'));
+        status.append("snapshots: ").append(snapshots.size()).append('\n');
+        return new Response(Response.OK, status.toString().getBytes(Charset.defaultCharset()));
     }
 
     /**
      * General handler for "/v0/entity" requests.
+     * Durability of writes is passed to replicas as is, since they get the same query.
      *
-     * @param id      identifier
-     * @param session created session
-     * @param request incoming request
+     * @param id         identifier
+     * @param replicas   replication factor in the ack/from format
+     * @param durability durability of the write: sync, async (default) or none, see {@link Durability}
+     * @param session    created session
+     * @param request    incoming request
      * @see #getData(ByteBuffer)
-     * @see #putData(ByteBuffer, byte[])
-     * @see #deleteData(ByteBuffer)
+     * @see #putData(ByteBuffer, byte[], long, Durability)
+     * @see #deleteData(ByteBuffer, long, Durability)
      */
     @Path("/v0/entity")
     public void entityHandler(@Param(value = "id", required = true) final String id,
                               @Param(value = "replicas") final String replicas,
+                              @Param(value = DURABILITY) final String durability,
                               final HttpSession session,
                               final Request request) {
         if (id.isBlank()) {
             sendResponse(session, () -> BAD_REQUEST);
-        } else {
-            final String s = convertRequestMethod(request);
-            final ByteBuffer key = ByteBuffer.wrap(id.getBytes(Charsets.UTF_8));
-            final String node = topology.calculateFor(key);
-            if (topology.isMe(node) && "true".equals(request.getHeader(SKYNET_CHECK))) {
-                switch (request.getMethod()) {
-                    case Request.METHOD_GET:
-                        sendResponse(session, () -> getData(key));
-                        break;
-                    case Request.METHOD_PUT:
-                        sendResponse(session, () -> putData(key, request.getBody()));
-                        break;
-                    case Request.METHOD_DELETE:
-                        sendResponse(session, () -> deleteData(key));
-                        break;
-                    default:
-                        sendResponse(session, () -> BAD_REQUEST);
-                        break;
-                }
-            } else if (topology.isMe(node) && request.getHeader(SKYNET_CHECK) == null) {
-                coordinateRequest(
-                        key,
-                        Optional.ofNullable(replicas).orElse("2/3"),
-                        session,
-                        request);
-            } else {
-                sendToNode(node, request)
-                        .thenApply(this::convertHttpResponse)
-                        .thenAccept(response -> sendResponse(session, () -> response));
+            return;
+        }
+        final Durability mode;
+        try {
+            mode = Durability.parse(durability);
+        } catch (IllegalArgumentException e) {
+            sendResponse(session, () -> BAD_REQUEST);
+            return;
+        }
+        final ByteBuffer key = ByteBuffer.wrap(id.getBytes(Charsets.UTF_8));
+        if (request.getHeader(SKYNET_CHECK) != null) {
+            final String header = request.getHeader(TIMESTAMP);
+            final long timestamp;
+            try {
+                timestamp = header == null ? System.currentTimeMillis() : Long.parseLong(header);
+            } catch (NumberFormatException e) {
+                sendResponse(session, () -> BAD_REQUEST);
+                return;
+            }
+            if (request.getMethod() == Request.METHOD_GET
+                    && getDataInMemory(key, response -> respond(session, response))) {
+                return;
             }
+            sendResponse(session, () -> handleLocally(request.getMethod(), key, request.getBody(), timestamp, mode));
+            return;
+        }
+        final Replicas replicasFactor;
+        try {
+            replicasFactor = parseReplicas(replicas);
+        } catch (IllegalArgumentException e) {
+            sendResponse(session, () -> BAD_REQUEST);
+            return;
         }
+        coordinateRequest(key, replicasFactor, mode, session, request);
     }
 
-    private Response convertHttpResponse(final HttpResponse<byte[]> httpResponse) {
-        return new Response(String.valueOf(httpResponse.statusCode()), httpResponse.body());
+    private Replicas parseReplicas(final String replicas) {
+        return replicas == null
+                ? Replicas.quorum(topology.all().size())
+                : Replicas.parse(replicas, topology.all().size());
     }
 
-    private HttpRequest convertRequest(final Request request, final String node) {
-        return HttpRequest.newBuilder()
-                .header(SKYNET_CHECK, "true")
-                .headers(request.getHeaders())
-                .method(convertRequestMethod(request), request.getBody() == null
-                        ? HttpRequest.BodyPublishers.noBody()
-                        : HttpRequest.BodyPublishers.ofByteArray(request.getBody()))
-                .uri(URI.create(node)).build();
+    /**
+     * Handler for batch reads. Body is the list of keys, see {@link BatchCodec}.
+     * Each key is read from its replicas, each node gets one sub-batch with all its keys.
+     *
+     * @param replicas replication factor in the ack/from format applied to each key
+     * @param session  created session
+     * @param request  incoming request
+     */
+    @Path(BatchCoordinator.GET_PATH)
+    @RequestMethod(Request.METHOD_POST)
+    public void getBatch(@Param(value = "replicas") final String replicas,
+                         final HttpSession session,
+                         final Request request) {
+        final List<ByteBuffer> keys;
+        final Replicas replicasFactor;
+        try {
+            keys = BatchCodec.decodeKeys(request.getBody() == null ? Response.EMPTY : request.getBody());
+            replicasFactor = parseReplicas(replicas);
+        } catch (IllegalArgumentException e) {
+            sendResponse(session, () -> BAD_REQUEST);
+            return;
+        }
+        if (request.getHeader(SKYNET_CHECK) != null) {
+            sendResponse(session, () -> batches.getLocally(keys));
+            return;
+        }
+        batches.get(keys, replicasFactor).whenComplete((response, error) -> sendResponse(session, () -> {
+            if (error != null) {
+                throw new IOException("Batch failed", error);
+            }
+            return response;
+        }));
     }
 
-    private String convertRequestMethod(Request request) {
-        final byte[] bytes = request.toBytes();
-        final int length = Utf8.length(request.getURI()) + 13 + request.getHeaderCount() * 2;
-        final String[] headers = request.getHeaders();
-        final int sum = Arrays.stream(headers).mapToInt(String::length).sum();
+    /**
+     * Handler for batch writes. Body is the list of mutations, see {@link BatchCodec}.
+     * Each replica gets one sub-batch with all its keys and applies it atomically.
+     *
+     * @param replicas replication factor in the ack/from format applied to each key
+     * @param session  created session
+     * @param request  incoming request
+     */
+    @Path(BatchCoordinator.WRITE_PATH)
+    @RequestMethod(Request.METHOD_POST)
+    public void writeBatch(@Param(value = "replicas") final String replicas,
+                           final HttpSession session,
+                           final Request request) {
+        final byte[] body = request.getBody() == null ? Response.EMPTY : request.getBody();
+        if (request.getHeader(SKYNET_CHECK) != null) {
+            sendResponse(session, () -> batches.writeLocally(BatchCodec.decodeCells(body)));
+            return;
+        }
+        final List<Cell> cells;
+        final Replicas replicasFactor;
+        try {
+            cells = BatchCodec.decodeMutations(body, System.currentTimeMillis());
+            replicasFactor = parseReplicas(replicas);
+        } catch (IllegalArgumentException e) {
+            sendResponse(session, () -> BAD_REQUEST);
+            return;
+        }
+        batches.write(cells, replicasFactor).whenComplete((response, error) -> sendResponse(session, () -> {
+            if (error != null) {
+                throw new IOException("Batch failed", error);
+            }
+            return response;
+        }));
+    }
 
-        return Utf8.read(bytes, 0, bytes.length - (sum + length));
+    private Response handleLocally(final int method,
+                                   final ByteBuffer key,
+                                   final byte[] body,
+                                   final long timestamp,
+                                   final Durability durability) throws IOException {
+        switch (method) {
+            case Request.METHOD_GET:
+                return getData(key);
+            case Request.METHOD_PUT:
+                return putData(key, body, timestamp, durability);
+            case Request.METHOD_DELETE:
+                return deleteData(key, timestamp, durability);
+            default:
+                return BAD_REQUEST;
+        }
     }
 
+    /**
+     * Method builds the request to replicas once, so it is shared by all of them.
+     *
+     * @param request   incoming request
+     * @param timestamp write timestamp
+     * @return request to replicas
+     */
+    private static Request proxyRequest(final Request request, final long timestamp) {
+        final Request proxied = new Request(request.getMethod(), request.getURI(), true);
+        proxied.addHeader(SKYNET_CHECK + "true");
+        proxied.addHeader(TIMESTAMP + timestamp);
+        final byte[] body = request.getBody();
+        if (body != null) {
+            proxied.addHeader("Content-Length: " + body.length);
+            proxied.setBody(body);
+        }
+        return proxied;
+    }
+
+    /**
+     * Method sends request to all replicas of the key at once and answers
+     * as soon as {@code ack} of them agreed. All replicas get the same write timestamp,
+     * so the newest value can be chosen among their answers on read.
+     *
+     * @param key        data identifier
+     * @param replicas   replication factor
+     * @param durability durability of the write on each replica
+     * @param session    created session
+     * @param request    incoming request
+     */
     private void coordinateRequest(final ByteBuffer key,
-                                   final String replicas,
+                                   final Replicas replicas,
+                                   final Durability durability,
                                    final HttpSession session,
                                    final Request request) {
-
-
-        final int count = Character.getNumericValue(replicas.charAt(0));
-        final List<CompletableFuture<HttpResponse<byte[]>>> responses = new ArrayList<>();
-
-        //put
-        for (int i = 0; i < count; i++) {
-            final String node = topology.findNextNode(key, i + 1);
-            responses.add(sendToNode(node, request));
+        final long timestamp = System.currentTimeMillis();
+        final Request proxied = proxyRequest(request, timestamp);
+        final List<CompletableFuture<Response>> responses = new ArrayList<>(replicas.getFrom());
+        for (final String node : topology.replicasFor(key, replicas.getFrom())) {
+            if (topology.isMe(node)) {
+                final boolean inMemory = request.getMethod() == Request.METHOD_GET
+                        && getDataInMemory(key, response -> responses.add(CompletableFuture.completedFuture(response)));
+                if (inMemory) {
+                    continue;
+                }
+                responses.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return handleLocally(request.getMethod(), key, request.getBody(), timestamp, durability);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, executor));
+            } else {
+                responses.add(client.send(node, proxied));
+            }
         }
 
-
-//        responses.stream().forEach(response -> {
-//            CompletableFuture.
-//                    response.thenApply(httpResponse -> {
-//                if (httpResponse.statusCode())
-//            })
-//        });
+        final int method = request.getMethod();
+        Futures.firstSuccessful(responses, replicas.getAck(), response -> isSuccessful(method, response))
+                .whenComplete((acked, error) -> {
+                    if (error != null) {
+                        respond(session, new Response(NOT_ENOUGH_REPLICAS, Response.EMPTY));
+                        return;
+                    }
+                    try {
+                        respond(session, handleResponses(method, acked));
+                    } catch (RuntimeException e) {
+                        log.error("Can't merge replicas answers", e);
+                        respond(session, new Response(Response.BAD_GATEWAY, Response.EMPTY));
+                    }
+                });
     }
 
-    private void handleResponses(final int count) {
-
+    private static boolean isSuccessful(final int method, final Response response) {
+        switch (method) {
+            case Request.METHOD_GET:
+                return response.getStatus() == 200 || response.getStatus() == 404;
+            case Request.METHOD_PUT:
+                return response.getStatus() == 201;
+            case Request.METHOD_DELETE:
+                return response.getStatus() == 202;
+            default:
+                return false;
+        }
+    }
 
+    private static Response handleResponses(final int method, final List<Response> responses) {
+        switch (method) {
+            case Request.METHOD_GET:
+                return mergeResponses(responses);
+            case Request.METHOD_PUT:
+                return new Response(Response.CREATED, Response.EMPTY);
+            case Request.METHOD_DELETE:
+                return new Response(Response.ACCEPTED, Response.EMPTY);
+            default:
+                return BAD_REQUEST;
+        }
     }
 
+    /**
+     * Method chooses the newest value among replicas answers.
+     * Replica which never saw the key answers 404 without timestamp and loses to any other answer,
+     * tombstone is returned as 404 with timestamp and wins over the value written at the same time.
+     * Answer with malformed timestamp is treated as the answer without one.
+     *
+     * @param responses replicas answers
+     * @return response with the newest value or HttpStatus.NOT_FOUND
+     */
+    static Response mergeResponses(final List<Response> responses) {
+        Response newest = null;
+        long newestTimestamp = Long.MIN_VALUE;
+        for (final Response response : responses) {
+            final String header = response.getHeader(TIMESTAMP);
+            if (header == null) {
+                continue;
+            }
+            final long timestamp;
+            try {
+                timestamp = Long.parseLong(header);
+            } catch (NumberFormatException e) {
+                log.warn("Replica answered with malformed timestamp {}", header);
+                continue;
+            }
+            final boolean tombstone = response.getStatus() == 404;
+            if (newest == null
+                    || timestamp > newestTimestamp
+                    || timestamp == newestTimestamp && tombstone) {
+                newest = response;
+                newestTimestamp = timestamp;
+            }
+        }
+        if (newest == null || newest.getStatus() == 404) {
+            return new Response(Response.NOT_FOUND, Response.EMPTY);
+        }
+        return new Response(Response.OK, newest.getBody());
+    }
 
     private void sendResponse(final HttpSession session, final MethodHandler method) {
         executor.execute(() -> {
@@ -219,70 +417,136 @@ public class ServiceImpl extends HttpServer implements Service {
     }
 
     /**
-     * Method gets data by specified key.
+     * Method sends the ready response right on the calling thread, since socket writes don't block.
+     *
+     * @param session  created session
+     * @param response ready response
+     */
+    private static void respond(final HttpSession session, final Response response) {
+        try {
+            session.sendResponse(response);
+        } catch (IOException e) {
+            log.error("Can't send response", e);
+        }
+    }
+
+    /**
+     * Method answers the read right on the network thread if it needs no disk reads,
+     * so only reads which touch the disk go to the executor.
+     *
+     * @param key    identifier
+     * @param answer receives the response as {@link #getData(ByteBuffer)} builds it
+     * @return false if the read should go to the executor
+     */
+    private boolean getDataInMemory(final ByteBuffer key, final Consumer<Response> answer) {
+        try {
+            return dao.findValueInMemory(key, value -> answer.accept(toResponse(value)));
+        } catch (IOException e) {
+            log.error("Can't look up in memory, falling back to the storage", e);
+            return false;
+        }
+    }
+
+    /**
+     * Method gets data by specified key with its write timestamp.
      *
      * @param key identifier
-     * @return HttpStatus.OK if found, else HttpStatus.NOT_FOUND
+     * @return HttpStatus.OK if found, HttpStatus.NOT_FOUND with timestamp if removed,
+     *     else HttpStatus.NOT_FOUND
      * @throws IOException internal error
      */
     private Response getData(final ByteBuffer key) throws IOException {
-        try {
-            final ByteBuffer result = dao.get(key);
-            return new Response(Response.OK, ByteBufferUtils.getByteArray(result));
-        } catch (NoSuchElementExceptionLite e) {
+        return toResponse(dao.findValue(key));
+    }
+
+    private static Response toResponse(@Nullable final Value value) {
+        if (value == null) {
             return new Response(Response.NOT_FOUND, Response.EMPTY);
         }
+        final Response response = value.isTombstone()
+                ? new Response(Response.NOT_FOUND, Response.EMPTY)
+                : new Response(Response.OK, value.getDataArray());
+        response.addHeader(TIMESTAMP + value.getTimestamp());
+        return response;
     }
 
     /**
      * Method puts data by specified key.
      *
-     * @param key  data identifier
-     * @param data data
+     * @param key        data identifier
+     * @param data       data
+     * @param timestamp  write timestamp
+     * @param durability durability of the write
      * @return HttpStatus.CREATED
      * @throws IOException internal error
      */
-    private Response putData(final ByteBuffer key, final byte[] data) throws IOException {
-        dao.upsert(key, ByteBuffer.wrap(data));
+    private Response putData(final ByteBuffer key,
+                             final byte[] data,
+                             final long timestamp,
+                             final Durability durability) throws IOException {
+        final long started = System.nanoTime();
+        dao.upsert(key, ByteBuffer.wrap(data), timestamp, durability);
+        writes.record(durability, started);
         return new Response(Response.CREATED, Response.EMPTY);
     }
 
     /**
      * Method deletes data with defined key.
      *
-     * @param key data identifier
+     * @param key        data identifier
+     * @param timestamp  write timestamp
+     * @param durability durability of the write
      * @return HttpStatus.ACCEPTED
      * @throws IOException internal error
      */
-    private Response deleteData(final ByteBuffer key) throws IOException {
-        dao.remove(key);
+    private Response deleteData(final ByteBuffer key,
+                                final long timestamp,
+                                final Durability durability) throws IOException {
+        final long started = System.nanoTime();
+        dao.remove(key, timestamp, durability);
+        writes.record(durability, started);
         return new Response(Response.ACCEPTED, Response.EMPTY);
     }
 
     /**
-     * Method get data in requested range.
+     * Method get data in requested range from all nodes of the cluster.
+     * Each node streams its cells, which are merged keeping only the newest alive ones.
+     * Each node reads its data as of the moment its stream is opened. Pages of one export
+     * read the same data if they pass the same snapshot token, see {@link #snapshotHandler}.
+     * The range with the expired token gets 410, with the unknown one 404.
+     * The range fails with 504 if too few nodes answer to cover every key.
      *
-     * @param start   start form
-     * @param end     end by
-     * @param session http session which wil
+     * @param start    start form
+     * @param end      end by
+     * @param snapshot token minted by {@link #snapshotHandler} or null for the current data
+     * @param session  http session which wil
+     * @param request  incoming request
      */
     @Path("/v0/entities")
     @RequestMethod(Request.METHOD_GET)
     public void getRange(@Param(value = "start", required = true) final String start,
                          @Param(value = "end") final String end,
-                         final HttpSession session) {
-        if (start.isBlank()) {
+                         @Param(value = SNAPSHOT) final String snapshot,
+                         final HttpSession session,
+                         final Request request) {
+        if (start.isBlank() || snapshot != null && snapshot.isBlank()) {
             sendResponse(session, () -> BAD_REQUEST);
         } else {
             executor.execute(() -> {
+                final String until = end == null || end.isEmpty() ? null : end;
                 final ByteBuffer from = ByteBuffer.wrap(start.getBytes(Charsets.UTF_8));
-                final ByteBuffer to = end == null || end.isEmpty()
+                final ByteBuffer to = until == null
                         ? null
-                        : ByteBuffer.wrap(end.getBytes(Charsets.UTF_8));
+                        : ByteBuffer.wrap(until.getBytes(Charsets.UTF_8));
                 try {
-                    final Iterator<Record> iterator = dao.range(from, to);
                     final ChunkedSession storageSession = (ChunkedSession) session;
-                    storageSession.stream(iterator);
+                    if (request.getHeader(SKYNET_CHECK) == null) {
+                        storageSession.stream(clusterRange(start, until, from, to, snapshot));
+                    } else {
+                        storageSession.streamCells(localRange(from, to, snapshot));
+                    }
+                } catch (StatusException e) {
+                    respond(session, new Response(e.getStatus(), Response.EMPTY));
                 } catch (IOException e) {
                     throw new UncheckedIOException("Session troubles", e);
                 }
@@ -290,9 +554,172 @@ public class ServiceImpl extends HttpServer implements Service {
         }
     }
 
-    private CompletableFuture<HttpResponse<byte[]>> sendToNode(final String node, final Request request) {
-        return client.sendAsync(convertRequest(request, String.valueOf(request.getMethod())),
-                HttpResponse.BodyHandlers.ofByteArray());
+    private CloseableIterator<Cell> localRange(final ByteBuffer from,
+                                               final ByteBuffer to,
+                                               @Nullable final String snapshot) throws IOException {
+        return snapshot == null ? dao.cellRange(from, to) : snapshots.cellRange(snapshot, from, to);
+    }
+
+    /**
+     * Method opens the local range before requesting other nodes, so nothing is left to close if it fails.
+     * The range refused by another node, e.g. for the expired snapshot, fails as a whole.
+     * Unavailable nodes are skipped only while the answered ones still cover every key:
+     * with the default replication every node keeps the whole ring and writes are acknowledged by
+     * {@code ack} of them, so the range misses no acknowledged write while more than
+     * {@code from - ack} nodes answer. Otherwise the range fails with 504 rather than is silently partial.
+     */
+    private CloseableIterator<Record> clusterRange(final String start,
+                                                   final String end,
+                                                   final ByteBuffer from,
+                                                   final ByteBuffer to,
+                                                   @Nullable final String snapshot) throws IOException {
+        final CloseableIterator<Cell> local = localRange(from, to, snapshot);
+        final List<CompletableFuture<CloseableIterator<Cell>>> remotes = new ArrayList<>();
+        for (final String node : topology.all()) {
+            if (!topology.isMe(node)) {
+                remotes.add(client.range(node, start, end, snapshot));
+            }
+        }
+        final List<CloseableIterator<Cell>> sources = new ArrayList<>(remotes.size() + 1);
+        sources.add(local);
+        for (final CompletableFuture<CloseableIterator<Cell>> remote : remotes) {
+            try {
+                sources.add(remote.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof StatusException) {
+                    sources.forEach(CloseableIterator::close);
+                    remotes.forEach(range -> range.thenAccept(CloseableIterator::close));
+                    throw (StatusException) e.getCause();
+                }
+                log.warn("Node is unavailable for range", e);
+            }
+        }
+        final Replicas replicas = Replicas.quorum(topology.all().size());
+        if (sources.size() <= replicas.getFrom() - replicas.getAck()) {
+            sources.forEach(CloseableIterator::close);
+            throw new StatusException(NOT_ENOUGH_REPLICAS, "Range is incomplete, only "
+                    + sources.size() + " of " + replicas.getFrom() + " nodes answered");
+        }
+        final Iterator<Cell> newest = Iters.collapseEquals(Iters.merge(sources, Cell.NEWEST_FIRST), Cell::getKey);
+        final Iterator<Cell> alive = Iterators.filter(newest, cell -> !cell.getValue().isTombstone());
+        return CloseableIterator.of(Iterators.transform(alive, Cell::toRecord),
+                () -> sources.forEach(CloseableIterator::close));
+    }
+
+    /**
+     * Handler of snapshots for exports over several pages of ranges, see {@link Snapshots}.
+     * POST mints the token and opens the view with it on each node, the token is the body of 201.
+     * DELETE closes views of the token before they expire, it is answered with 202.
+     * The coordinator passes its token to other nodes, if any of them fails to open the view,
+     * the views already open are closed and its status is returned, 504 if it is unavailable.
+     *
+     * @param token   token to close, it is minted by the coordinator on open
+     * @param session created session
+     * @param request incoming request
+     */
+    @Path(SNAPSHOT_PATH)
+    public void snapshotHandler(@Param(value = "token") final String token,
+                                final HttpSession session,
+                                final Request request) {
+        final int method = request.getMethod();
+        if (method != Request.METHOD_POST && method != Request.METHOD_DELETE) {
+            sendResponse(session, () -> new Response(Response.METHOD_NOT_ALLOWED, Response.EMPTY));
+            return;
+        }
+        final boolean local = request.getHeader(SKYNET_CHECK) != null;
+        final boolean minted = method == Request.METHOD_POST && !local;
+        if (minted ? token != null : token == null || token.isBlank()) {
+            sendResponse(session, () -> BAD_REQUEST);
+            return;
+        }
+        if (local) {
+            sendResponse(session, () -> snapshotLocally(method, token));
+            return;
+        }
+        final String name = minted ? Snapshots.mint() : token;
+        coordinateSnapshot(method, name).whenComplete((response, error) -> sendResponse(session, () -> {
+            if (error != null) {
+                throw new IOException("Snapshot failed", error);
+            }
+            return response;
+        }));
+    }
+
+    private Response snapshotLocally(final int method, final String token) {
+        try {
+            if (method == Request.METHOD_POST) {
+                snapshots.open(token);
+                return new Response(Response.CREATED, Response.EMPTY);
+            }
+            snapshots.release(token);
+            return new Response(Response.ACCEPTED, Response.EMPTY);
+        } catch (StatusException e) {
+            return new Response(e.getStatus(), Response.EMPTY);
+        } catch (IOException e) {
+            log.error("Can't open snapshot", e);
+            return new Response(Response.INTERNAL_ERROR, Response.EMPTY);
+        }
+    }
+
+    /**
+     * Method opens or closes views of the token on all nodes at once.
+     *
+     * @return future of 201 with the token or 202, or of the failure of some node
+     */
+    private CompletableFuture<Response> coordinateSnapshot(final int method, final String token) {
+        final Request proxied = new Request(method,
+                SNAPSHOT_PATH + "?token=" + URLEncoder.encode(token, StandardCharsets.UTF_8), true);
+        proxied.addHeader(SKYNET_CHECK + "true");
+        final List<CompletableFuture<Response>> responses = new ArrayList<>(topology.all().size());
+        for (final String node : topology.all()) {
+            responses.add(topology.isMe(node)
+                    ? CompletableFuture.supplyAsync(() -> snapshotLocally(method, token), executor)
+                    : client.sendBatch(node, proxied)
+                            .exceptionally(e -> new Response(NOT_ENOUGH_REPLICAS, Response.EMPTY)));
+        }
+        final int success = method == Request.METHOD_POST ? 201 : 202;
+        return CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            for (final CompletableFuture<Response> response : responses) {
+                if (response.join().getStatus() != success) {
+                    if (method == Request.METHOD_POST) {
+                        coordinateSnapshot(Request.METHOD_DELETE, token);
+                    }
+                    return response.join();
+                }
+            }
+            return method == Request.METHOD_POST
+                    ? new Response(Response.CREATED, token.getBytes(StandardCharsets.UTF_8))
+                    : new Response(Response.ACCEPTED, Response.EMPTY);
+        });
+    }
+
+    @Override
+    public synchronized void start() {
+        try {
+            client.start(new NodeClient.LocalHandler() {
+                @Override
+                public Response handle(final int method, final ByteBuffer key, final byte[] body,
+                                       final long timestamp, final Durability durability) throws IOException {
+                    return handleLocally(method, key, body, timestamp, durability);
+                }
+
+                @Override
+                public boolean handleInMemory(final int method, final ByteBuffer key,
+                                              final Consumer<Response> answer) {
+                    return method == Request.METHOD_GET && getDataInMemory(key, answer);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't start transport", e);
+        }
+        super.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        super.stop();
+        client.close();
+        snapshots.close();
     }
 
     @Override
@@ -302,7 +729,7 @@ public class ServiceImpl extends HttpServer implements Service {
 
     @Override
     public HttpSession createSession(final Socket socket) {
-        return new ChunkedSession(socket, this);
+        return new ChunkedSession(socket, this, executor);
     }
 
     @FunctionalInterface
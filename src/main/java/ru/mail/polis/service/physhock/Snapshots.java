@@ -0,0 +1,156 @@
+package ru.mail.polis.service.physhock;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import one.nio.http.Response;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.DAO;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage views named by tokens, so pages of one export are read from the same view.
+ * The token is minted by the coordinator, which opens the view with it on each node.
+ * The view idle for the time to live is closed by the background task, ranges with its token
+ * get 410 then and ranges with the token never opened get 404. Ranges still streamed keep
+ * the closed view till they are over. The number of open views is limited, since each of them
+ * keeps versions of the data from compaction.
+ */
+final class Snapshots implements Closeable {
+
+    private static final long TIME_TO_LIVE = TimeUnit.MINUTES.toNanos(1);
+    private static final int MAX_VIEWS = 64;
+    private static final int MAX_CLOSED = 1024;
+
+    private final DAO dao;
+    private final Map<String, Entry> views = new HashMap<>();
+    private final Set<String> closed = Collections.newSetFromMap(new LinkedHashMap<>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_CLOSED;
+        }
+    });
+    private final ScheduledExecutorService expiry = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("snapshot-expiry-%d").setDaemon(true).build());
+
+    Snapshots(@NotNull final DAO dao) {
+        this.dao = dao;
+        final long period = TIME_TO_LIVE / 4;
+        expiry.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Method mints the token of the new view.
+     */
+    @NotNull
+    static String mint() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Method opens the view of the token, the view already open is kept.
+     *
+     * @param token name of the view
+     * @throws StatusException 400 if the storage has no snapshots, 503 if too many views are open
+     */
+    synchronized void open(@NotNull final String token) throws IOException {
+        if (views.containsKey(token)) {
+            return;
+        }
+        if (!dao.supportsSnapshots()) {
+            throw new StatusException(Response.BAD_REQUEST, "Storage has no snapshots");
+        }
+        if (views.size() >= MAX_VIEWS) {
+            throw new StatusException(Response.SERVICE_UNAVAILABLE, "Too many open snapshots");
+        }
+        views.put(token, new Entry(dao.snapshot(), System.nanoTime()));
+    }
+
+    /**
+     * Method opens the range on the view of the token.
+     *
+     * @param token name of the view
+     * @param from  first key (inclusive)
+     * @param to    upper bound (exclusive) or null for the range till the end
+     * @return iterator over cells including tombstones
+     * @throws StatusException 410 if the view is closed, 404 if it was never open
+     */
+    synchronized CloseableIterator<Cell> cellRange(@NotNull final String token,
+                                                   @NotNull final ByteBuffer from,
+                                                   @Nullable final ByteBuffer to) throws IOException {
+        final Entry entry = views.get(token);
+        if (entry == null) {
+            throw closed.contains(token)
+                    ? new StatusException(Response.GONE, "Snapshot is expired: " + token)
+                    : new StatusException(Response.NOT_FOUND, "Unknown snapshot: " + token);
+        }
+        entry.used = System.nanoTime();
+        return entry.view.cellRange(from, to);
+    }
+
+    /**
+     * Method closes the view of the token before it expires.
+     *
+     * @param token name of the view
+     */
+    synchronized void release(@NotNull final String token) {
+        final Entry entry = views.remove(token);
+        if (entry != null) {
+            closed.add(token);
+            entry.view.close();
+        }
+    }
+
+    private synchronized void expire() {
+        final long now = System.nanoTime();
+        final Iterator<Map.Entry<String, Entry>> entries = views.entrySet().iterator();
+        while (entries.hasNext()) {
+            final Map.Entry<String, Entry> entry = entries.next();
+            if (now - entry.getValue().used > TIME_TO_LIVE) {
+                entries.remove();
+                closed.add(entry.getKey());
+                entry.getValue().view.close();
+            }
+        }
+    }
+
+    synchronized int size() {
+        return views.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        expiry.shutdownNow();
+        views.values().forEach(entry -> entry.view.close());
+        views.clear();
+    }
+
+    /**
+     * View with the time of its last range, guarded by the lock of the registry.
+     */
+    private static final class Entry {
+        private final DAO.Snapshot view;
+        private long used;
+
+        private Entry(final DAO.Snapshot view, final long used) {
+            this.view = view;
+            this.used = used;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package ru.mail.polis.service.physhock;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Failure of the request which is answered with its own status rather than the internal error,
+ * e.g. the range with the expired snapshot token or the range refused by another node.
+ */
+final class StatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String status;
+
+    /**
+     * Failure answered with the status.
+     *
+     * @param status  status line of the response, e.g. {@link one.nio.http.Response#GONE}
+     * @param message description of the failure
+     */
+    StatusException(@NotNull final String status, @NotNull final String message) {
+        super(message);
+        this.status = status;
+    }
+
+    @NotNull
+    String getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,287 @@
+package ru.mail.polis.service.physhock;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.CloseableIterator;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Range of {@link Cell}s streamed from another node.
+ * Only the next cell is held in memory, the rest stays in the socket.
+ * Closing the range before its end aborts the response.
+ * The node which stops sending in the middle of the range fails it after the timeout,
+ * so the stalled node can not hold the coordinator and its client forever.
+ */
+final class StreamingRange implements CloseableIterator<Cell> {
+
+    private final DataInputStream input;
+    private Cell next;
+
+    private StreamingRange(@NotNull final InputStream input) throws IOException {
+        this.input = new DataInputStream(new BufferedInputStream(input));
+        this.next = read();
+    }
+
+    /**
+     * Method requests range from the node. Streaming is done by JDK client,
+     * because one-nio client reads the whole response body into memory.
+     *
+     * @param client  http client
+     * @param node    node to request range from
+     * @param query   query of the range, see {@link #query}
+     * @param timeout timeout of receiving response headers and then of each read of the body
+     * @return future of the range, it fails with {@link StatusException} if the node refuses the request,
+     *     e.g. the snapshot, rather than is unavailable
+     */
+    static CompletableFuture<CloseableIterator<Cell>> open(@NotNull final HttpClient client,
+                                                           @NotNull final String node,
+                                                           @NotNull final String query,
+                                                           @NotNull final Duration timeout) {
+        final HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(node + "/v0/entities?" + query))
+                .header(ServiceImpl.SKYNET_CHECK_NAME, "true")
+                .timeout(timeout)
+                .GET()
+                .build();
+        return client.sendAsync(request, info -> new TimedBody(timeout))
+                .thenApply(response -> {
+                    try {
+                        final int status = response.statusCode();
+                        if (status >= 400 && status < 500) {
+                            response.body().close();
+                            throw new StatusException(String.valueOf(status), "Range from " + node + " is refused");
+                        }
+                        if (status != 200) {
+                            response.body().close();
+                            throw new IOException("Range from " + node + " failed with " + status);
+                        }
+                        return new StreamingRange(response.body());
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    /**
+     * Method builds the query of the range.
+     *
+     * @param start    start key (inclusive)
+     * @param end      end key (exclusive) or null
+     * @param snapshot token of the view to read from or null for the current data
+     * @return query string
+     */
+    static String query(@NotNull final String start, @Nullable final String end, @Nullable final String snapshot) {
+        return "start=" + encode(start)
+                + (end == null ? "" : "&end=" + encode(end))
+                + (snapshot == null ? "" : "&" + ServiceImpl.SNAPSHOT + "=" + encode(snapshot));
+    }
+
+    private static String encode(@NotNull final String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private Cell read() throws IOException {
+        final Cell cell = Cell.read(input);
+        if (cell == null) {
+            input.close();
+        }
+        return cell;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Cell next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("Next on empty iterator");
+        }
+        final Cell result = next;
+        try {
+            next = read();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Range stream is broken", e);
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        next = null;
+        try {
+            input.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't close range stream", e);
+        }
+    }
+
+    /**
+     * Body of the response read as the stream, unlike {@link HttpResponse.BodySubscribers#ofInputStream()}
+     * each read waits for the next part of the body no longer than the timeout.
+     * The next part is requested only when the previous one is read, so the body is not buffered.
+     */
+    private static final class TimedBody extends InputStream implements HttpResponse.BodySubscriber<InputStream> {
+        private static final List<ByteBuffer> LAST = Collections.emptyList();
+
+        private final BlockingQueue<List<ByteBuffer>> parts = new LinkedBlockingQueue<>();
+        private final long timeout;
+        private Flow.Subscription subscription;
+        private boolean closed;
+        private volatile Throwable failure;
+        private Iterator<ByteBuffer> part = Collections.emptyIterator();
+        private ByteBuffer buffer;
+        private boolean received;
+        private boolean done;
+
+        TimedBody(@NotNull final Duration timeout) {
+            this.timeout = timeout.toNanos();
+        }
+
+        @Override
+        public CompletionStage<InputStream> getBody() {
+            return CompletableFuture.completedStage(this);
+        }
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+            synchronized (this) {
+                if (!closed) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                    return;
+                }
+            }
+            subscription.cancel();
+        }
+
+        @Override
+        public void onNext(final List<ByteBuffer> item) {
+            parts.add(item);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            failure = throwable;
+            parts.add(LAST);
+        }
+
+        @Override
+        public void onComplete() {
+            parts.add(LAST);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final ByteBuffer current = current();
+            return current == null ? -1 : current.get() & 0xff;
+        }
+
+        @Override
+        public int read(@NotNull final byte[] bytes, final int offset, final int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            final ByteBuffer current = current();
+            if (current == null) {
+                return -1;
+            }
+            final int count = Math.min(length, current.remaining());
+            current.get(bytes, offset, count);
+            return count;
+        }
+
+        /**
+         * Method returns the buffer with bytes to read or null at the end of the body.
+         */
+        private ByteBuffer current() throws IOException {
+            while (buffer == null || !buffer.hasRemaining()) {
+                if (done) {
+                    return null;
+                }
+                if (part.hasNext()) {
+                    buffer = part.next();
+                    continue;
+                }
+                part = next().iterator();
+            }
+            return buffer;
+        }
+
+        private List<ByteBuffer> next() throws IOException {
+            final Flow.Subscription current;
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("Range stream is closed");
+                }
+                current = subscription;
+            }
+            if (received) {
+                current.request(1);
+            }
+            final List<ByteBuffer> next;
+            try {
+                next = parts.poll(timeout, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Range stream is interrupted");
+            }
+            if (next == null) {
+                close();
+                final long millis = TimeUnit.NANOSECONDS.toMillis(timeout);
+                throw new SocketTimeoutException("Range stream stalled for " + millis + " ms");
+            }
+            received = true;
+            if (next == LAST) {
+                done = true;
+                if (failure != null) {
+                    throw new IOException("Range stream is broken", failure);
+                }
+            }
+            return next;
+        }
+
+        @Override
+        public void close() {
+            final Flow.Subscription current;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                current = subscription;
+            }
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package ru.mail.polis.service.physhock;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -15,4 +17,21 @@ public interface Topology<T> {
     T findNextNode(final ByteBuffer key, final int offset);
 
     Set<T> all();
+
+    /**
+     * Method returns nodes which store replicas of the key.
+     * Replicas for the smaller count are the prefix of replicas for the bigger one.
+     *
+     * @param key   key
+     * @param count number of replicas
+     * @return list of distinct nodes, owner goes first
+     */
+    default List<T> replicasFor(final ByteBuffer key, final int count) {
+        final List<T> replicas = new ArrayList<>(count);
+        replicas.add(calculateFor(key));
+        for (int i = 1; i < count; i++) {
+            replicas.add(findNextNode(key, i));
+        }
+        return replicas;
+    }
 }
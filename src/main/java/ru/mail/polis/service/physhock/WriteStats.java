@@ -0,0 +1,53 @@
+package ru.mail.polis.service.physhock;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.dao.Durability;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of local writes by durability, so the cost of each mode is seen in the status.
+ * Counters are striped, so concurrent writers don't contend on them.
+ */
+final class WriteStats {
+
+    private final Map<Durability, LongAdder> counts = new EnumMap<>(Durability.class);
+    private final Map<Durability, LongAdder> nanos = new EnumMap<>(Durability.class);
+
+    WriteStats() {
+        for (final Durability durability : Durability.values()) {
+            counts.put(durability, new LongAdder());
+            nanos.put(durability, new LongAdder());
+        }
+    }
+
+    /**
+     * Method counts the write.
+     *
+     * @param durability durability of the write
+     * @param started    {@link System#nanoTime()} before the write
+     */
+    void record(@NotNull final Durability durability, final long started) {
+        counts.get(durability).increment();
+        nanos.get(durability).add(System.nanoTime() - started);
+    }
+
+    /**
+     * Method reports the number of writes and their mean latency in microseconds by mode.
+     */
+    @NotNull
+    Map<String, Long> report() {
+        final Map<String, Long> report = new LinkedHashMap<>();
+        for (final Durability durability : Durability.values()) {
+            final long count = counts.get(durability).sum();
+            final long total = nanos.get(durability).sum();
+            report.put(durability.getName() + ".count", count);
+            report.put(durability.getName() + ".micros", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(total / count));
+        }
+        return report;
+    }
+}
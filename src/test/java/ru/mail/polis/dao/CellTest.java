@@ -0,0 +1,65 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the serialized form of {@link Cell}.
+ */
+class CellTest extends TestBase {
+
+    @Test
+    void serialized() throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer data = randomValueBuffer();
+        final byte[] present = Cell.of(key, Value.present(data, 42)).toBytes();
+        final byte[] tombstone = Cell.of(key, Value.tombstone(43)).toBytes();
+        final byte[] bytes = Arrays.copyOf(present, present.length + tombstone.length);
+        System.arraycopy(tombstone, 0, bytes, present.length, tombstone.length);
+
+        final DataInputStream input = input(bytes);
+        final Cell first = Cell.read(input);
+        assertEquals(key, first.getKey());
+        assertEquals(data, first.getValue().getData());
+        assertEquals(42, first.getValue().getTimestamp());
+        final Cell second = Cell.read(input);
+        assertEquals(key, second.getKey());
+        assertTrue(second.getValue().isTombstone());
+        assertNull(Cell.read(input));
+    }
+
+    @Test
+    void wrongKeyLength() {
+        for (final int length : new int[]{-1, Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+            final byte[] bytes = ByteBuffer.allocate(Integer.BYTES).putInt(length).array();
+            assertThrows(IOException.class, () -> Cell.read(input(bytes)));
+        }
+    }
+
+    @Test
+    void wrongValueLength() {
+        for (final int length : new int[]{-1, 0, Value.HEADER_SIZE - 1, Integer.MAX_VALUE}) {
+            final byte[] bytes = ByteBuffer.allocate(Integer.BYTES * 2 + 1)
+                    .putInt(1)
+                    .put((byte) 1)
+                    .putInt(length)
+                    .array();
+            assertThrows(IOException.class, () -> Cell.read(input(bytes)));
+        }
+    }
+
+    private static DataInputStream input(final byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
@@ -26,7 +26,12 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -131,4 +136,38 @@ class CompactionTest extends TestBase {
         // Heuristic
         assertTrue(size < valueSize);
     }
+
+    @Test
+    void writesDuringCompaction(@TempDir File data) throws Exception {
+        final int keyCount = 1000;
+        final int rounds = 10;
+        final long expired = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (DAO dao = DAOFactory.create(data)) {
+            for (int round = 0; round < rounds; round++) {
+                final List<ByteBuffer> keys = new ArrayList<>(keyCount);
+                for (int i = 0; i < keyCount; i++) {
+                    final ByteBuffer key = randomKeyBuffer();
+                    keys.add(key);
+                    dao.remove(key, expired);
+                }
+
+                // Revive keys while their expired tombstones are being dropped
+                final Future<?> writes = executor.submit(() -> {
+                    for (final ByteBuffer key : keys) {
+                        dao.upsert(key, join(key, key));
+                    }
+                    return null;
+                });
+                dao.compact();
+                writes.get();
+
+                for (final ByteBuffer key : keys) {
+                    assertEquals(join(key, key), dao.get(key));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
@@ -0,0 +1,65 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests of writes with each {@link Durability}, the storage closed as usual keeps all of them.
+ */
+class DurabilityTest extends TestBase {
+
+    @Test
+    void parse() {
+        assertEquals(Durability.ASYNC, Durability.parse(null));
+        for (final Durability durability : Durability.values()) {
+            assertEquals(durability, Durability.parse(durability.getName()));
+        }
+        assertThrows(IllegalArgumentException.class, () -> Durability.parse("SYNC"));
+        assertThrows(IllegalArgumentException.class, () -> Durability.parse(""));
+    }
+
+    @Test
+    void writesSurviveClose(@TempDir File data) throws IOException {
+        final Map<Durability, ByteBuffer> upserted = new EnumMap<>(Durability.class);
+        final Map<Durability, ByteBuffer> removed = new EnumMap<>(Durability.class);
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = DAOFactory.create(data)) {
+            for (final Durability durability : Durability.values()) {
+                final ByteBuffer key = randomKeyBuffer();
+                dao.upsert(key, value, 1, durability);
+                upserted.put(durability, key);
+
+                final ByteBuffer tombstone = randomKeyBuffer();
+                dao.upsert(tombstone, value, 1, durability);
+                dao.remove(tombstone, 2, durability);
+                removed.put(durability, tombstone);
+            }
+            assertStored(dao, upserted, removed, value);
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            assertStored(dao, upserted, removed, value);
+        }
+    }
+
+    private static void assertStored(final DAO dao,
+                                     final Map<Durability, ByteBuffer> upserted,
+                                     final Map<Durability, ByteBuffer> removed,
+                                     final ByteBuffer value) throws IOException {
+        for (final Durability durability : Durability.values()) {
+            assertEquals(value, dao.get(upserted.get(durability)));
+            assertThrows(NoSuchElementException.class, () -> dao.get(removed.get(durability)));
+            assertEquals(2, dao.getValue(removed.get(durability)).getTimestamp());
+        }
+    }
+}
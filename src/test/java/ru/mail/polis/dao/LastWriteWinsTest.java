@@ -0,0 +1,98 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of timestamped writes coming out of order, e.g. from different coordinators.
+ */
+class LastWriteWinsTest extends TestBase {
+
+    @Test
+    void olderValueIsSkipped(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, value, 2);
+            dao.upsert(key, randomValueBuffer(), 1);
+            assertEquals(value, dao.get(key));
+            assertEquals(2, dao.getValue(key).getTimestamp());
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void olderTombstoneIsSkipped(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, value, 2);
+            dao.remove(key, 1);
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void olderValueDoesNotResurrect(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.remove(key, 2);
+            dao.upsert(key, randomValueBuffer(), 1);
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            assertTrue(dao.getValue(key).isTombstone());
+        }
+    }
+
+    @Test
+    void olderValueIsSkippedAfterCompaction(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, value, 2);
+            dao.compact();
+            dao.upsert(key, randomValueBuffer(), 1);
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void sameTimestampIsApplied(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, randomValueBuffer(), 1);
+            dao.upsert(key, value, 1);
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void batchSkipsOlderCells(@TempDir File data) throws IOException {
+        final ByteBuffer stored = randomKeyBuffer();
+        final ByteBuffer repeated = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        final ByteBuffer newest = randomValueBuffer();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(stored, value, 2);
+            dao.apply(List.of(
+                    Cell.of(stored, Value.present(randomValueBuffer(), 1)),
+                    Cell.of(repeated, Value.present(newest, 2)),
+                    Cell.of(repeated, Value.tombstone(1))));
+            assertEquals(value, dao.get(stored));
+            assertEquals(newest, dao.get(repeated));
+        }
+    }
+}
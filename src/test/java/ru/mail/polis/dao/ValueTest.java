@@ -0,0 +1,40 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the serialized form of {@link Value}.
+ */
+class ValueTest extends TestBase {
+
+    @Test
+    void serialized() {
+        final ByteBuffer data = randomValueBuffer();
+        final Value value = Value.fromBytes(Value.present(data, 42).toBytes());
+        assertFalse(value.isTombstone());
+        assertEquals(42, value.getTimestamp());
+        assertEquals(data, value.getData());
+
+        final byte[] tombstone = Value.tombstone(43).toBytes();
+        assertEquals(Value.HEADER_SIZE, tombstone.length);
+        assertTrue(Value.isTombstone(tombstone));
+        assertEquals(43, Value.fromBytes(tombstone).getTimestamp());
+    }
+
+    @Test
+    void shortArrayIsNotTombstone() {
+        for (int length = 0; length < Value.HEADER_SIZE; length++) {
+            final byte[] bytes = new byte[length];
+            Arrays.fill(bytes, (byte) 1);
+            assertFalse(Value.isTombstone(bytes));
+        }
+    }
+}
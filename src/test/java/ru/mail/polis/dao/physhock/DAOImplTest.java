@@ -0,0 +1,211 @@
+package ru.mail.polis.dao.physhock;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.Value;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Tests of opening {@link DAOImpl}, of its caches and of its ranges.
+ */
+class DAOImplTest extends TestBase {
+
+    @Test
+    void failedOpenKeepsStorage(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = new DAOImpl(data)) {
+            dao.upsert(key, value);
+            for (int i = 0; i < 10; i++) {
+                assertThrows(IOException.class, () -> new DAOImpl(data));
+            }
+            assertEquals(value, dao.get(key));
+        }
+        try (DAO dao = new DAOImpl(data)) {
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void writesInvalidateCaches(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        try (DAO dao = new DAOImpl(data)) {
+            for (int i = 0; i < 3; i++) {
+                assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            }
+            final ByteBuffer first = randomValueBuffer();
+            dao.upsert(key, first);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(first, dao.get(key));
+            }
+            final ByteBuffer second = randomValueBuffer();
+            dao.upsert(key, second);
+            assertEquals(second, dao.get(key));
+            dao.remove(key);
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+    }
+
+    @Test
+    void rangeStopsAtUpperBound(@TempDir File data) throws IOException {
+        try (DAO dao = new DAOImpl(data)) {
+            for (final String key : new String[]{"a", "a\0", "ab", "abc", "b", "ba"}) {
+                dao.upsert(bytes(key), bytes(key));
+            }
+            dao.remove(bytes("a\0"));
+
+            assertEquals(List.of("a"), keys(dao.range(bytes("a"), bytes("ab"))));
+            assertEquals(List.of("a", "ab", "abc"), keys(dao.range(bytes("a"), bytes("b"))));
+            assertEquals(List.of("abc", "b", "ba"), keys(dao.range(bytes("abc"), bytes("c"))));
+            assertEquals(List.of("b", "ba"), keys(dao.range(bytes("b"), null)));
+            assertEquals(List.of(), keys(dao.range(bytes("ab"), bytes("ab"))));
+            assertEquals(List.of(), keys(dao.range(bytes("b"), bytes("a"))));
+
+            final List<String> cells = new ArrayList<>();
+            try (CloseableIterator<Cell> range = dao.cellRange(bytes("a"), bytes("ab"))) {
+                range.forEachRemaining(cell -> cells.add(string(cell.getKey())));
+            }
+            assertEquals(List.of("a", "a\0"), cells);
+        }
+    }
+
+    @Test
+    void upperBoundIsCopied(@TempDir File data) throws IOException {
+        try (DAO dao = new DAOImpl(data)) {
+            for (final String key : new String[]{"a", "b", "c"}) {
+                dao.upsert(bytes(key), bytes(key));
+            }
+            final ByteBuffer to = bytes("b");
+            final Iterator<Record> range = dao.range(bytes("a"), to);
+            to.put(0, (byte) 'z');
+            assertEquals(List.of("a"), keys(range));
+        }
+    }
+
+    @Test
+    void closedRangeIsOver(@TempDir File data) throws IOException {
+        try (DAO dao = new DAOImpl(data)) {
+            for (int i = 0; i < 10; i++) {
+                dao.upsert(randomKeyBuffer(), randomValueBuffer());
+            }
+            final CloseableIterator<Cell> range = dao.cellRange(ByteBuffer.allocate(0), null);
+            assertTrue(range.hasNext());
+            range.next();
+            range.close();
+            assertFalse(range.hasNext());
+            assertThrows(NoSuchElementException.class, range::next);
+            range.close();
+
+            final CloseableIterator<Cell> exhausted = dao.cellRange(ByteBuffer.allocate(0), null);
+            int count = 0;
+            while (exhausted.hasNext()) {
+                exhausted.next();
+                count++;
+            }
+            assertEquals(10, count);
+            exhausted.close();
+        }
+    }
+
+    @Test
+    void memoryReadsDontTouchDisk(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = new DAOImpl(data)) {
+            dao.upsert(key, value);
+            assertEquals(value, findInMemory(dao, key).getData());
+            dao.compact();
+        }
+        try (DAO dao = new DAOImpl(data)) {
+            assertFalse(dao.findValueInMemory(key, found -> fail("Value is on the disk")));
+            assertEquals(value, dao.findValue(key).getData());
+            assertEquals(value, findInMemory(dao, key).getData());
+
+            final ByteBuffer absent = randomKeyBuffer();
+            assertNull(dao.findValue(absent));
+            assertNull(findInMemory(dao, absent));
+        }
+    }
+
+    @Test
+    void cachesFitIntoBudget(@TempDir File data) throws IOException {
+        final DAOConfig config = DAOConfig.readHeavy();
+        try (DAO dao = new DAOImpl(data, config)) {
+            for (int i = 0; i < 1000; i++) {
+                final ByteBuffer key = randomKeyBuffer();
+                dao.upsert(key, randomValueBuffer());
+                dao.get(key);
+            }
+            final Map<String, Long> usage = dao.memoryUsage();
+            assertEquals(config.getCacheSize(), usage.get("budget"));
+            assertEquals(config.getRowCacheSize(), usage.get("row.cache.capacity"));
+            assertTrue(usage.get("miss.cache") > 0);
+            final long total = usage.get("cache") + usage.get("memtables.reserved")
+                    + usage.get("row.cache.capacity") + usage.get("miss.cache");
+            assertEquals(total, usage.get("total"));
+            assertTrue(usage.get("total") <= usage.get("budget"), usage.toString());
+        }
+    }
+
+    @Test
+    void cachesAreTakenFromBudget() {
+        final DAOConfig config = DAOConfig.builder()
+                .cacheSize(64 * 1024 * 1024)
+                .rowCacheSize(16 * 1024 * 1024)
+                .missCacheEntries(1024)
+                .build();
+        final long blocks = config.getCacheSize() - config.getWriteBufferBudget() - config.getRowCacheSize()
+                - MissCache.sizeOf(1024);
+        assertEquals(blocks, config.getBlockCacheSize());
+        assertThrows(IllegalArgumentException.class, () -> DAOConfig.builder()
+                .cacheSize(64 * 1024 * 1024)
+                .rowCacheSize(32 * 1024 * 1024)
+                .writeBufferBudget(32 * 1024 * 1024)
+                .build());
+    }
+
+    private static Value findInMemory(final DAO dao, final ByteBuffer key) throws IOException {
+        final List<Value> found = new ArrayList<>();
+        assertTrue(dao.findValueInMemory(key, found::add));
+        assertEquals(1, found.size());
+        return found.get(0);
+    }
+
+    private static ByteBuffer bytes(final String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(final ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+    }
+
+    private static List<String> keys(final Iterator<Record> range) {
+        final List<String> keys = new ArrayList<>();
+        range.forEachRemaining(record -> keys.add(string(record.getKey())));
+        if (range instanceof CloseableIterator) {
+            ((CloseableIterator<?>) range).close();
+        }
+        return keys;
+    }
+}
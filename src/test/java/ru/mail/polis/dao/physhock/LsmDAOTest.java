@@ -0,0 +1,199 @@
+package ru.mail.polis.dao.physhock;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recovery tests for {@link LsmDAO}. The crash is simulated by copying files of the storage
+ * which is never closed, once its background flushes are over.
+ */
+class LsmDAOTest extends TestBase {
+
+    private static final DAOConfig CONFIG = DAOConfig.builder()
+            .writeBufferSize(64 * 1024)
+            .blockSize(4 * 1024)
+            .build();
+
+    @Test
+    void unflushedWritesSurviveCrash(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = randomKeys(100);
+        final LsmDAO crashed = new LsmDAO(crashed(data), DAOConfig.defaults());
+        for (final ByteBuffer key : keys) {
+            crashed.upsert(key, join(key, key));
+        }
+        crashed.remove(keys.get(0));
+        final File recovered = crash(crashed, data);
+
+        try (DAO dao = new LsmDAO(recovered, DAOConfig.defaults())) {
+            assertThrows(NoSuchElementException.class, () -> dao.get(keys.get(0)));
+            assertTrue(dao.getValue(keys.get(0)).isTombstone());
+            for (final ByteBuffer key : keys.subList(1, keys.size())) {
+                assertEquals(join(key, key), dao.get(key));
+            }
+        }
+        assertTrue(files(recovered, WriteAheadLog.SUFFIX).isEmpty());
+    }
+
+    @Test
+    void tornTailIsDropped(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = randomKeys(10);
+        final LsmDAO crashed = new LsmDAO(crashed(data), DAOConfig.defaults());
+        for (final ByteBuffer key : keys) {
+            crashed.upsert(key, join(key, key));
+        }
+        final File recovered = crash(crashed, data);
+        final Path log = files(recovered, WriteAheadLog.SUFFIX).get(0);
+        Files.write(log, new byte[]{0, 0, 1, 0, 42}, StandardOpenOption.APPEND);
+
+        try (DAO dao = new LsmDAO(recovered, DAOConfig.defaults())) {
+            for (final ByteBuffer key : keys) {
+                assertEquals(join(key, key), dao.get(key));
+            }
+        }
+    }
+
+    @Test
+    void flushedAndLoggedWritesSurviveCrash(@TempDir File data) throws IOException {
+        // Few enough tables to stay below the size-tiered compaction
+        final List<ByteBuffer> keys = randomKeys(100);
+        final LsmDAO crashed = new LsmDAO(crashed(data), CONFIG);
+        for (final ByteBuffer key : keys) {
+            crashed.upsert(key, randomValueBuffer());
+        }
+        for (final ByteBuffer key : keys) {
+            crashed.upsert(key, join(key, key));
+        }
+        final File recovered = crash(crashed, data);
+        assertFalse(files(recovered, SSTable.SUFFIX).isEmpty());
+
+        try (DAO dao = new LsmDAO(recovered, CONFIG)) {
+            for (final ByteBuffer key : keys) {
+                assertEquals(join(key, key), dao.get(key));
+            }
+        }
+    }
+
+    @Test
+    void compactionKeepsLatestAcrossReopen(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = randomKeys(1000);
+        try (DAO dao = new LsmDAO(data, CONFIG)) {
+            for (int round = 0; round < 5; round++) {
+                for (final ByteBuffer key : keys) {
+                    dao.upsert(key, randomValueBuffer());
+                }
+            }
+            for (final ByteBuffer key : keys) {
+                dao.upsert(key, join(key, key));
+            }
+            dao.remove(keys.get(0));
+            dao.compact();
+        }
+        assertEquals(1, files(data, SSTable.SUFFIX).size());
+
+        try (DAO dao = new LsmDAO(data, CONFIG)) {
+            assertTrue(dao.getValue(keys.get(0)).isTombstone());
+            for (final ByteBuffer key : keys.subList(1, keys.size())) {
+                assertEquals(join(key, key), dao.get(key));
+            }
+        }
+    }
+
+    @Test
+    void inputsOfCompactionLeftByCrashAreDeleted(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = randomKeys(1000);
+        final long expired = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2);
+        try (DAO dao = new LsmDAO(data, CONFIG)) {
+            for (final ByteBuffer key : keys) {
+                dao.upsert(key, randomValueBuffer(), expired - 1);
+            }
+            for (final ByteBuffer key : keys) {
+                dao.remove(key, expired);
+            }
+        }
+        final Map<Path, byte[]> inputs = new HashMap<>();
+        for (final Path table : files(data, SSTable.SUFFIX)) {
+            inputs.put(table, Files.readAllBytes(table));
+        }
+        assertTrue(inputs.size() > 1);
+
+        try (DAO dao = new LsmDAO(data, CONFIG)) {
+            dao.compact();
+        }
+        // Crash before the inputs are deleted
+        for (final Map.Entry<Path, byte[]> input : inputs.entrySet()) {
+            Files.write(input.getKey(), input.getValue());
+        }
+
+        try (DAO dao = new LsmDAO(data, CONFIG)) {
+            assertFalse(dao.iterator(ByteBuffer.allocate(0)).hasNext());
+        }
+        assertEquals(1, files(data, SSTable.SUFFIX).size());
+    }
+
+    @Test
+    void emptyCloseLeavesNoLog(@TempDir File data) throws IOException {
+        new LsmDAO(data, DAOConfig.defaults()).close();
+        assertTrue(files(data, WriteAheadLog.SUFFIX).isEmpty());
+        try (DAO dao = new LsmDAO(data, DAOConfig.defaults())) {
+            assertFalse(dao.iterator(ByteBuffer.allocate(0)).hasNext());
+        }
+    }
+
+    private static File crashed(final File data) throws IOException {
+        return Files.createDirectories(data.toPath().resolve("crashed")).toFile();
+    }
+
+    /**
+     * Method copies files of the storage once its memtables are either flushed or active.
+     *
+     * @return directory with the copy
+     */
+    private static File crash(final DAO dao, final File data) throws IOException {
+        while (dao.memoryUsage().get("memtables.unflushed") > 0) {
+            Thread.onSpinWait();
+        }
+        final File copy = new File(data, "recovered");
+        Files.createDirectories(copy.toPath());
+        for (final Path file : files(new File(data, "crashed"), "")) {
+            Files.copy(file, copy.toPath().resolve(file.getFileName()));
+        }
+        return copy;
+    }
+
+    private static List<ByteBuffer> randomKeys(final int count) {
+        final List<ByteBuffer> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(randomKeyBuffer());
+        }
+        return keys;
+    }
+
+    static List<Path> files(final File data, final String suffix) throws IOException {
+        try (Stream<Path> listing = Files.list(data.toPath())) {
+            return listing.filter(file -> file.getFileName().toString().endsWith(suffix))
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ru.mail.polis.dao.physhock;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link MissCache}.
+ */
+class MissCacheTest extends TestBase {
+
+    private static final int ENTRIES = 1024;
+
+    @Test
+    void writeForgetsMiss() {
+        final MissCache cache = new MissCache(ENTRIES);
+        final ByteBuffer key = randomKeyBuffer();
+        assertFalse(cache.contains(key));
+        cache.add(key, cache.version(key));
+        assertTrue(cache.contains(key));
+
+        cache.invalidate(key);
+        assertFalse(cache.contains(key));
+    }
+
+    @Test
+    void missReadBeforeWriteIsNotAdded() {
+        final MissCache cache = new MissCache(ENTRIES);
+        final ByteBuffer key = randomKeyBuffer();
+        final long version = cache.version(key);
+        cache.invalidate(key);
+        cache.add(key, version);
+        assertFalse(cache.contains(key));
+    }
+}
@@ -0,0 +1,119 @@
+package ru.mail.polis.dao.physhock;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.Value;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link RowCache}.
+ */
+class RowCacheTest extends TestBase {
+
+    private static final long CAPACITY = 1024 * 1024;
+
+    @Test
+    void writeDropsCachedValue() {
+        final RowCache cache = new RowCache(CAPACITY);
+        final ByteBuffer key = randomKeyBuffer();
+        cache.admit(key, Value.present(randomValueBuffer(), 1), cache.version(key));
+        assertNotNull(cache.get(key));
+
+        cache.invalidate(key);
+        assertNull(cache.get(key));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void hitIsCopiedOnlyIntoBody() {
+        final RowCache cache = new RowCache(CAPACITY);
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        cache.admit(key, Value.present(value, 1), cache.version(key));
+
+        final Value first = cache.get(key);
+        assertNotNull(first);
+        assertEquals(value, first.getData());
+        assertSame(first.getDataArray(), first.getDataArray());
+        final Value second = cache.get(key);
+        assertNotNull(second);
+        assertNotSame(first.getDataArray(), second.getDataArray());
+    }
+
+    @Test
+    void valueReadBeforeWriteIsNotAdmitted() {
+        final RowCache cache = new RowCache(CAPACITY);
+        final ByteBuffer key = randomKeyBuffer();
+        final long version = cache.version(key);
+        cache.invalidate(key);
+        cache.admit(key, Value.present(randomValueBuffer(), 1), version);
+        assertNull(cache.get(key));
+
+        cache.admit(key, Value.tombstone(2), cache.version(key));
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    void closedCacheMisses() {
+        final RowCache cache = new RowCache(CAPACITY);
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        cache.admit(key, Value.present(value, 1), cache.version(key));
+        assertNotNull(cache.get(key));
+
+        cache.close();
+        assertNull(cache.get(key));
+        cache.admit(key, Value.present(value, 1), cache.version(key));
+        assertNull(cache.get(key));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void hitsRacingClose() throws Exception {
+        final ExecutorService readers = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 20; round++) {
+                final RowCache cache = new RowCache(CAPACITY);
+                final List<ByteBuffer> keys = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                    final ByteBuffer key = randomKeyBuffer();
+                    cache.admit(key, Value.present(join(key, key), 1), cache.version(key));
+                    keys.add(key);
+                }
+                final AtomicBoolean closed = new AtomicBoolean();
+                final List<Future<?>> hits = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    hits.add(readers.submit(() -> {
+                        while (!closed.get()) {
+                            for (final ByteBuffer key : keys) {
+                                final Value value = cache.get(key);
+                                assertTrue(value == null || value.getData().equals(join(key, key)));
+                            }
+                        }
+                    }));
+                }
+                cache.close();
+                closed.set(true);
+                for (final Future<?> hit : hits) {
+                    hit.get();
+                }
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package ru.mail.polis.dao.physhock;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.Value;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the file format of {@link SSTable}.
+ */
+class SSTableTest extends TestBase {
+
+    private static final long BLOCK_SIZE = 256;
+
+    @Test
+    void writtenCellsAreRead(@TempDir Path data) throws IOException {
+        final NavigableMap<ByteBuffer, Value> cells = cells(1000);
+        final Path path = data.resolve(1 + SSTable.SUFFIX);
+        SSTable.write(path, iterator(cells), BLOCK_SIZE);
+        assertFalse(Files.exists(path.resolveSibling(path.getFileName() + SSTable.TEMP)));
+
+        final SSTable table = SSTable.open(path, 1, 1);
+        assertFalse(table.isEmpty());
+        for (final Map.Entry<ByteBuffer, Value> cell : cells.entrySet()) {
+            assertValue(cell.getValue(), table.get(cell.getKey()));
+        }
+        assertNull(table.get(ByteBuffer.allocate(0)));
+        assertNull(table.get(ByteBuffer.wrap(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff})));
+        for (int i = 0; i < 100; i++) {
+            final ByteBuffer absent = randomKeyBuffer();
+            if (!cells.containsKey(absent)) {
+                assertNull(table.get(absent));
+            }
+        }
+    }
+
+    @Test
+    void rangeIsBounded(@TempDir Path data) throws IOException {
+        final NavigableMap<ByteBuffer, Value> cells = cells(1000);
+        final Path path = data.resolve(1 + SSTable.SUFFIX);
+        SSTable.write(path, iterator(cells), BLOCK_SIZE);
+        final SSTable table = SSTable.open(path, 1, 1);
+
+        final List<ByteBuffer> keys = new ArrayList<>(cells.keySet());
+        final ByteBuffer from = keys.get(100);
+        final ByteBuffer to = keys.get(900);
+        final Iterator<Cell> range = table.iterator(from, to);
+        for (final Map.Entry<ByteBuffer, Value> cell : cells.subMap(from, true, to, false).entrySet()) {
+            assertTrue(range.hasNext());
+            final Cell next = range.next();
+            assertEquals(cell.getKey(), next.getKey());
+            assertValue(cell.getValue(), next.getValue());
+        }
+        assertFalse(range.hasNext());
+
+        final Iterator<Cell> all = table.iterator();
+        int count = 0;
+        while (all.hasNext()) {
+            all.next();
+            count++;
+        }
+        assertEquals(cells.size(), count);
+    }
+
+    @Test
+    void emptyTable(@TempDir Path data) throws IOException {
+        final Path path = data.resolve(1 + SSTable.SUFFIX);
+        SSTable.write(path, Collections.emptyIterator(), BLOCK_SIZE);
+        final SSTable table = SSTable.open(path, 1, 1);
+        assertTrue(table.isEmpty());
+        assertNull(table.get(randomKeyBuffer()));
+        assertFalse(table.iterator().hasNext());
+    }
+
+    @Test
+    void truncatedTableIsRejected(@TempDir Path data) throws IOException {
+        final Path path = data.resolve(1 + SSTable.SUFFIX);
+        SSTable.write(path, iterator(cells(100)), BLOCK_SIZE);
+        final long size = Files.size(path);
+        for (final long length : new long[]{0, 3, size - 1, size / 2}) {
+            final Path truncated = data.resolve("truncated" + SSTable.SUFFIX);
+            Files.copy(path, truncated);
+            try (FileChannel channel = FileChannel.open(truncated, StandardOpenOption.WRITE)) {
+                channel.truncate(length);
+            }
+            assertThrows(IOException.class, () -> SSTable.open(truncated, 1, 1));
+            Files.delete(truncated);
+        }
+    }
+
+    @Test
+    void corruptedFooterIsRejected(@TempDir Path data) throws IOException {
+        final Path path = data.resolve(1 + SSTable.SUFFIX);
+        SSTable.write(path, iterator(cells(100)), BLOCK_SIZE);
+        final long size = Files.size(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, Integer.MAX_VALUE), size - Integer.BYTES);
+        }
+        assertThrows(IOException.class, () -> SSTable.open(path, 1, 1));
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, -1), size - Long.BYTES - Integer.BYTES);
+        }
+        assertThrows(IOException.class, () -> SSTable.open(path, 1, 1));
+    }
+
+    /**
+     * Method generates sorted cells, every tenth of them is a tombstone.
+     */
+    private NavigableMap<ByteBuffer, Value> cells(final int count) {
+        final NavigableMap<ByteBuffer, Value> cells = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            cells.put(randomKeyBuffer(), i % 10 == 0 ? Value.tombstone(i) : Value.present(randomValueBuffer(), i));
+        }
+        return cells;
+    }
+
+    private static Iterator<Cell> iterator(final NavigableMap<ByteBuffer, Value> cells) {
+        final List<Cell> list = new ArrayList<>(cells.size());
+        cells.forEach((key, value) -> list.add(Cell.of(key, value)));
+        return list.iterator();
+    }
+
+    private static void assertValue(final Value expected, final Value actual) {
+        assertNotNull(actual);
+        assertEquals(expected.isTombstone(), actual.isTombstone());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getData(), actual.getData());
+    }
+}
@@ -0,0 +1,152 @@
+package ru.mail.polis.dao.physhock;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Tests of {@link ValueLog} through {@link DAOImpl}: values above the threshold are kept in the log.
+ */
+class ValueLogTest extends TestBase {
+
+    private static final int THRESHOLD = 1024;
+    private static final int LARGE = 16 * THRESHOLD;
+    private static final DAOConfig CONFIG = DAOConfig.builder()
+            .valueLogThreshold(THRESHOLD)
+            .valueLogSegmentSize(1024 * 1024)
+            .build();
+
+    @Test
+    void largeValuesAreMovedToLog(@TempDir File data) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> values = new HashMap<>();
+        try (DAO dao = new DAOImpl(data, CONFIG)) {
+            for (int i = 0; i < 100; i++) {
+                values.put(randomKeyBuffer(), bytes(LARGE));
+                values.put(randomKeyBuffer(), bytes(THRESHOLD / 4));
+            }
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : values.entrySet()) {
+                dao.upsert(entry.getKey(), entry.getValue());
+            }
+            assertTrue(logSize(data) >= 100L * LARGE);
+            assertStored(dao, values);
+        }
+        try (DAO dao = new DAOImpl(data, CONFIG)) {
+            assertStored(dao, values);
+        }
+    }
+
+    @Test
+    void collectionReclaimsGarbage(@TempDir File data) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> values = new HashMap<>();
+        try (DAO dao = new DAOImpl(data, CONFIG)) {
+            for (int i = 0; i < 100; i++) {
+                values.put(randomKeyBuffer(), bytes(LARGE));
+            }
+            for (int round = 0; round < 5; round++) {
+                for (final Map.Entry<ByteBuffer, ByteBuffer> entry : values.entrySet()) {
+                    entry.setValue(bytes(LARGE));
+                    dao.upsert(entry.getKey(), entry.getValue());
+                }
+            }
+            final ByteBuffer removed = values.keySet().iterator().next();
+            values.remove(removed);
+            dao.remove(removed);
+
+            dao.compact();
+            assertTrue(logSize(data) < 2L * values.size() * LARGE);
+            assertStored(dao, values);
+            assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+        }
+        try (DAO dao = new DAOImpl(data, CONFIG)) {
+            assertStored(dao, values);
+        }
+    }
+
+    @Test
+    void olderWriteKeepsLoggedValue(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = bytes(LARGE);
+        try (DAO dao = new DAOImpl(data, CONFIG)) {
+            dao.upsert(key, value, 2);
+            dao.upsert(key, bytes(LARGE), 1);
+            dao.remove(key, 1);
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void loggedValueIsNotReadInMemory(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = bytes(LARGE);
+        try (DAO dao = new DAOImpl(data, CONFIG)) {
+            dao.upsert(key, value);
+            assertFalse(dao.findValueInMemory(key, found -> fail("Value is in the log")));
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void logIsReadWhenTurnedOff(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = bytes(LARGE);
+        try (DAO dao = new DAOImpl(data, CONFIG)) {
+            dao.upsert(key, value);
+        }
+        try (DAO dao = new DAOImpl(data, DAOConfig.builder().valueLogThreshold(0).build())) {
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    private static void assertStored(final DAO dao, final Map<ByteBuffer, ByteBuffer> values) throws IOException {
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : values.entrySet()) {
+            assertEquals(entry.getValue(), dao.get(entry.getKey()));
+        }
+        final Iterator<Record> range = dao.iterator(ByteBuffer.allocate(0));
+        int count = 0;
+        while (range.hasNext()) {
+            final Record record = range.next();
+            assertEquals(values.get(record.getKey()), record.getValue());
+            count++;
+        }
+        assertEquals(values.size(), count);
+    }
+
+    private static long logSize(final File data) throws IOException {
+        try (Stream<Path> files = Files.list(data.toPath().resolve("vlog"))) {
+            return files.mapToLong(file -> {
+                try {
+                    return Files.size(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).sum();
+        }
+    }
+
+    private static ByteBuffer bytes(final int size) {
+        final byte[] bytes = new byte[size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+}
@@ -0,0 +1,120 @@
+package ru.mail.polis.dao.physhock;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteOptions;
+import ru.mail.polis.TestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link WriteCombiner}.
+ */
+class WriteCombinerTest extends TestBase {
+
+    private static final int WRITERS = 8;
+
+    private Options options;
+    private RocksDB rocksDB;
+
+    @BeforeEach
+    void open(@TempDir File data) throws RocksDBException {
+        RocksDB.loadLibrary();
+        options = new Options().setCreateIfMissing(true);
+        rocksDB = RocksDB.open(options, data.getAbsolutePath());
+    }
+
+    @AfterEach
+    void close() {
+        rocksDB.close();
+        options.close();
+    }
+
+    @Test
+    void concurrentWritesAreCommitted() throws Exception {
+        try (WriteCombiner combiner = new WriteCombiner(rocksDB, new WriteOptions(), 1024, 1, TimeUnit.MILLISECONDS)) {
+            final List<byte[]> keys = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                keys.add(randomValue());
+            }
+            final ExecutorService writers = Executors.newFixedThreadPool(WRITERS);
+            try {
+                final List<Future<?>> writes = new ArrayList<>();
+                for (final byte[] key : keys) {
+                    writes.add(writers.submit(() -> {
+                        combiner.write(key, key);
+                        return null;
+                    }));
+                }
+                for (final Future<?> write : writes) {
+                    write.get();
+                }
+            } finally {
+                writers.shutdownNow();
+            }
+            for (final byte[] key : keys) {
+                assertArrayEquals(key, rocksDB.get(key));
+            }
+        }
+    }
+
+    @Test
+    void failedBatchIsReported() {
+        try (WriteCombiner combiner = new WriteCombiner(rocksDB, new WriteOptions(), 1024, 0, TimeUnit.MILLISECONDS)) {
+            assertThrows(IOException.class, () -> combiner.write(null, randomValue()));
+        }
+    }
+
+    @Test
+    void writersOfFailedBatchReturn() {
+        assertTimeoutPreemptively(Duration.ofMinutes(1), () -> {
+            try (WriteCombiner combiner = new WriteCombiner(rocksDB, new WriteOptions(),
+                    Long.MAX_VALUE, 10, TimeUnit.MILLISECONDS)) {
+                final AtomicInteger failed = new AtomicInteger();
+                final ExecutorService writers = Executors.newFixedThreadPool(WRITERS);
+                try {
+                    final List<Future<?>> writes = new ArrayList<>();
+                    for (int i = 0; i < WRITERS * 10; i++) {
+                        final byte[] key = i % WRITERS == 0 ? null : randomValue();
+                        writes.add(writers.submit(() -> {
+                            try {
+                                combiner.write(key, randomValue());
+                            } catch (IOException e) {
+                                failed.incrementAndGet();
+                            }
+                            return null;
+                        }));
+                    }
+                    for (final Future<?> write : writes) {
+                        write.get();
+                    }
+                } finally {
+                    writers.shutdownNow();
+                }
+                assertTrue(failed.get() >= 10);
+                final byte[] key = randomValue();
+                combiner.write(key, key);
+                assertArrayEquals(key, rocksDB.get(key));
+            }
+        });
+    }
+}
@@ -0,0 +1,182 @@
+package ru.mail.polis.service;
+
+import one.nio.http.HttpClient;
+import one.nio.http.Response;
+import one.nio.net.ConnectionString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Tests of ranges in the cluster of three nodes, some of which are unavailable.
+ */
+class ClusterRangeTest extends TestBase {
+
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final int NODES = 3;
+    private static final String PREFIX = "range key \u043a\u043b\u044e\u0447 ";
+
+    private final List<File> data = new ArrayList<>();
+    private final List<DAO> daos = new ArrayList<>();
+    private final List<Service> services = new ArrayList<>();
+    private final List<Socket> stalled = new ArrayList<>();
+    private ServerSocket stalledNode;
+    private HttpClient client;
+
+    /**
+     * Method starts the cluster, the last node only answers headers of each request and then stalls.
+     */
+    private void start(final boolean withStalledNode) throws Exception {
+        final Set<String> endpoints = new LinkedHashSet<>();
+        final List<Integer> ports = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            final int port = randomPort();
+            ports.add(port);
+            endpoints.add(endpoint(port));
+        }
+        if (withStalledNode) {
+            stalledNode = new ServerSocket(ports.remove(NODES - 1));
+            final Thread acceptor = new Thread(this::stall, "stalled-node");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+        for (final int port : ports) {
+            final File dir = Files.createTempDirectory();
+            data.add(dir);
+            final DAO dao = DAOFactory.create(dir);
+            daos.add(dao);
+            final Service service = ServiceFactory.create(port, dao, endpoints);
+            services.add(service);
+            service.start();
+        }
+        client = new HttpClient(new ConnectionString(endpoint(ports.get(0)) + "?timeout=" + TIMEOUT.toMillis() / 2));
+    }
+
+    private void stall() {
+        try {
+            while (true) {
+                final Socket socket = stalledNode.accept();
+                synchronized (stalled) {
+                    stalled.add(socket);
+                }
+                final InputStream input = socket.getInputStream();
+                int matched = 0;
+                while (matched < 4) {
+                    final int next = input.read();
+                    if (next < 0) {
+                        break;
+                    }
+                    matched = next == "\r\n\r\n".charAt(matched) ? matched + 1 : next == '\r' ? 1 : 0;
+                }
+                socket.getOutputStream().write(
+                        "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            }
+        } catch (IOException e) {
+            // The node is stopped
+        }
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+        if (stalledNode != null) {
+            stalledNode.close();
+            synchronized (stalled) {
+                for (final Socket socket : stalled) {
+                    socket.close();
+                }
+            }
+        }
+        services.forEach(Service::stop);
+        for (final DAO dao : daos) {
+            dao.close();
+        }
+        for (final File dir : data) {
+            Files.recursiveDelete(dir);
+        }
+    }
+
+    @Test
+    void coveredWithoutUnavailableNode() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            start(false);
+            final byte[] expected = upsertAll();
+            services.remove(NODES - 1).stop();
+
+            final Response response = range();
+            assertEquals(200, response.getStatus());
+            assertArrayEquals(expected, response.getBody());
+        });
+    }
+
+    @Test
+    void incompleteWithoutQuorum() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            start(false);
+            upsertAll();
+            services.remove(NODES - 1).stop();
+            services.remove(NODES - 2).stop();
+
+            assertEquals(504, range().getStatus());
+        });
+    }
+
+    @Test
+    void stalledNodeIsSkipped() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            start(true);
+            final byte[] expected = upsertAll();
+
+            final Response response = range();
+            assertEquals(200, response.getStatus());
+            assertArrayEquals(expected, response.getBody());
+        });
+    }
+
+    /**
+     * Method upserts keys with the default replication and returns the body of their range.
+     */
+    private byte[] upsertAll() throws Exception {
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 10; i++) {
+            final String key = PREFIX + i;
+            final String value = "value" + i;
+            final byte[] body = value.getBytes(StandardCharsets.UTF_8);
+            final Response response = client.put("/v0/entity?id=" + encode(key), body);
+            assertEquals(201, response.getStatus());
+            expected.write((key + '\n' + value).getBytes(StandardCharsets.UTF_8));
+        }
+        return expected.toByteArray();
+    }
+
+    private Response range() throws Exception {
+        return client.get("/v0/entities?start=" + encode(PREFIX) + "&end=" + encode(PREFIX + "~"));
+    }
+
+    private static String encode(final String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
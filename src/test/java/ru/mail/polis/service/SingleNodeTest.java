@@ -122,6 +122,27 @@ class SingleNodeTest extends TestBase {
                 client.get("/abracadabra").getStatus()));
     }
 
+    @Test
+    void durability() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            for (final String durability : new String[]{"sync", "async", "none"}) {
+                final String key = "durability" + durability;
+                final byte[] value = randomValue();
+                assertEquals(201, client.put(path(key) + "&durability=" + durability, value).getStatus());
+                assertArrayEquals(value, get(key).getBody());
+            }
+            assertEquals(400, client.put(path("durability") + "&durability=always", new byte[]{0}).getStatus());
+        });
+    }
+
+    @Test
+    void malformedTimestamp() {
+        assertTimeoutPreemptively(TIMEOUT, () -> assertEquals(
+                400,
+                client.put(path("timestamp"), new byte[]{0}, "X-Request-From-Node: true", "X-Timestamp: now")
+                        .getStatus()));
+    }
+
     @Test
     void getAbsent() {
         assertTimeoutPreemptively(TIMEOUT, () -> assertEquals(
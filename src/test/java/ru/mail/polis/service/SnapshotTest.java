@@ -0,0 +1,162 @@
+package ru.mail.polis.service;
+
+import one.nio.http.HttpClient;
+import one.nio.http.Response;
+import one.nio.net.ConnectionString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+import ru.mail.polis.dao.physhock.DAOConfig;
+import ru.mail.polis.dao.physhock.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Tests of snapshot tokens of ranges in the cluster of two nodes.
+ */
+class SnapshotTest extends TestBase {
+
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final int NODES = 2;
+
+    private final List<File> data = new ArrayList<>();
+    private final List<DAO> daos = new ArrayList<>();
+    private final List<Service> services = new ArrayList<>();
+    private final List<HttpClient> clients = new ArrayList<>();
+
+    @BeforeEach
+    void start() throws Exception {
+        final Set<String> endpoints = new LinkedHashSet<>();
+        final List<Integer> ports = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            final int port = randomPort();
+            ports.add(port);
+            endpoints.add(endpoint(port));
+        }
+        for (final int port : ports) {
+            final File dir = Files.createTempDirectory();
+            data.add(dir);
+            final DAO dao = DAOFactory.create(dir);
+            daos.add(dao);
+            final Service service = ServiceFactory.create(port, dao, endpoints);
+            services.add(service);
+            service.start();
+            clients.add(new HttpClient(new ConnectionString(endpoint(port) + "?timeout=" + TIMEOUT.toMillis() / 2)));
+        }
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        clients.forEach(HttpClient::close);
+        services.forEach(Service::stop);
+        for (final DAO dao : daos) {
+            dao.close();
+        }
+        for (final File dir : data) {
+            Files.recursiveDelete(dir);
+        }
+    }
+
+    @Test
+    void rangeSeesSnapshot() {
+        assumeTrue(daos.get(0).supportsSnapshots());
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            for (int i = 0; i < 10; i++) {
+                assertEquals(201, upsert("key" + i, "old").getStatus());
+            }
+            final byte[] before = clients.get(0).get("/v0/entities?start=key").getBody();
+            final String token = open();
+            for (int i = 0; i < 20; i++) {
+                assertEquals(201, upsert("key" + i, "new").getStatus());
+            }
+            for (final HttpClient client : clients) {
+                final Response range = client.get("/v0/entities?start=key&snapshot=" + token);
+                assertEquals(200, range.getStatus());
+                assertArrayEquals(before, range.getBody());
+            }
+        });
+    }
+
+    @Test
+    void closedSnapshotIsGone() {
+        assumeTrue(daos.get(0).supportsSnapshots());
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final String token = open();
+            assertEquals(202, clients.get(1).delete("/v0/snapshot?token=" + token).getStatus());
+            for (final HttpClient client : clients) {
+                assertEquals(410, client.get("/v0/entities?start=key&snapshot=" + token).getStatus());
+            }
+        });
+    }
+
+    @Test
+    void unknownSnapshotIsNotFound() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            for (final HttpClient client : clients) {
+                assertEquals(404, client.get("/v0/entities?start=key&snapshot=" + randomId()).getStatus());
+            }
+        });
+    }
+
+    @Test
+    void storageWithoutSnapshotsRefusesThem() throws IOException {
+        final File dir = Files.createTempDirectory();
+        final int port = randomPort();
+        final DAO dao = new LsmDAO(dir, DAOConfig.defaults());
+        final Service service = ServiceFactory.create(port, dao, Set.of(endpoint(port)));
+        service.start();
+        final HttpClient client = new HttpClient(new ConnectionString(endpoint(port)));
+        try {
+            assertFalse(dao.supportsSnapshots());
+            assertThrows(IOException.class, dao::snapshot);
+            assertTimeoutPreemptively(TIMEOUT, () -> {
+                assertEquals(400, client.post("/v0/snapshot").getStatus());
+                assertEquals(404, client.get("/v0/entities?start=key&snapshot=" + randomId()).getStatus());
+            });
+        } finally {
+            client.close();
+            service.stop();
+            dao.close();
+            Files.recursiveDelete(dir);
+        }
+    }
+
+    @Test
+    void tokenIsMintedByServer() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(400, clients.get(0).post("/v0/snapshot?token=" + randomId()).getStatus());
+            assertEquals(400, clients.get(0).delete("/v0/snapshot").getStatus());
+            assertEquals(405, clients.get(0).get("/v0/snapshot").getStatus());
+        });
+    }
+
+    private String open() throws Exception {
+        final Response response = clients.get(0).post("/v0/snapshot");
+        assertEquals(201, response.getStatus());
+        final String token = new String(response.getBody(), StandardCharsets.UTF_8);
+        assertFalse(token.isBlank());
+        return token;
+    }
+
+    private Response upsert(final String key, final String value) throws Exception {
+        return clients.get(0).put("/v0/entity?id=" + key + "&replicas=2/2", value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,116 @@
+package ru.mail.polis.service.physhock;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.Value;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of bodies of batch requests encoded by {@link BatchCodec}.
+ */
+class BatchCodecTest extends TestBase {
+
+    @Test
+    void keys() {
+        final List<ByteBuffer> keys = List.of(randomKeyBuffer(), randomKeyBuffer(), randomKeyBuffer());
+        assertEquals(keys, BatchCodec.decodeKeys(BatchCodec.encodeKeys(keys)));
+        assertEquals(List.of(), BatchCodec.decodeKeys(new byte[0]));
+    }
+
+    @Test
+    void malformedKeys() {
+        final byte[] body = BatchCodec.encodeKeys(List.of(randomKeyBuffer()));
+        assertThrows(IllegalArgumentException.class, () -> BatchCodec.decodeKeys(Arrays.copyOf(body, body.length - 1)));
+        assertThrows(IllegalArgumentException.class, () -> BatchCodec.decodeKeys(new byte[]{0, 0}));
+        assertThrows(IllegalArgumentException.class,
+                () -> BatchCodec.decodeKeys(ByteBuffer.allocate(Integer.BYTES).putInt(-1).array()));
+        assertThrows(IllegalArgumentException.class,
+                () -> BatchCodec.decodeKeys(BatchCodec.encodeKeys(List.of(ByteBuffer.allocate(0)))));
+    }
+
+    @Test
+    void mutations() {
+        final ByteBuffer upserted = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        final ByteBuffer removed = randomKeyBuffer();
+        final int size = 2 + Integer.BYTES * 4 + upserted.remaining() + value.remaining() + removed.remaining();
+        final byte[] body = ByteBuffer.allocate(size)
+                .put(BatchCodec.UPSERT).putInt(upserted.remaining()).put(upserted.duplicate())
+                .putInt(value.remaining()).put(value.duplicate())
+                .put(BatchCodec.REMOVE).putInt(removed.remaining()).put(removed.duplicate()).putInt(0)
+                .array();
+
+        final List<Cell> cells = BatchCodec.decodeMutations(body, 42);
+        assertEquals(2, cells.size());
+        assertEquals(upserted, cells.get(0).getKey());
+        assertFalse(cells.get(0).getValue().isTombstone());
+        assertEquals(value, cells.get(0).getValue().getData());
+        assertEquals(42, cells.get(0).getValue().getTimestamp());
+        assertEquals(removed, cells.get(1).getKey());
+        assertTrue(cells.get(1).getValue().isTombstone());
+        assertEquals(42, cells.get(1).getValue().getTimestamp());
+    }
+
+    @Test
+    void malformedMutations() {
+        final byte[] unknown = ByteBuffer.allocate(1 + Integer.BYTES * 2 + 1).put((byte) 7).putInt(1).put((byte) 1)
+                .putInt(0).array();
+        assertThrows(IllegalArgumentException.class, () -> BatchCodec.decodeMutations(unknown, 1));
+        final byte[] truncated = ByteBuffer.allocate(1 + Integer.BYTES + 1).put(BatchCodec.UPSERT).putInt(1)
+                .put((byte) 1).array();
+        assertThrows(IllegalArgumentException.class, () -> BatchCodec.decodeMutations(truncated, 1));
+        final byte[] longValue = ByteBuffer.allocate(1 + Integer.BYTES * 2 + 1).put(BatchCodec.UPSERT).putInt(1)
+                .put((byte) 1).putInt(Integer.MAX_VALUE).array();
+        assertThrows(IllegalArgumentException.class, () -> BatchCodec.decodeMutations(longValue, 1));
+    }
+
+    @Test
+    void entries() {
+        final Map<ByteBuffer, ByteBuffer> entries = new LinkedHashMap<>();
+        entries.put(randomKeyBuffer(), randomValueBuffer());
+        entries.put(randomKeyBuffer(), ByteBuffer.allocate(0));
+        final ByteBuffer body = ByteBuffer.wrap(BatchCodec.encodeEntries(entries));
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : entries.entrySet()) {
+            assertEquals(entry.getKey(), slice(body));
+            assertEquals(entry.getValue(), slice(body));
+        }
+        assertFalse(body.hasRemaining());
+    }
+
+    @Test
+    void cells() throws IOException {
+        final List<Cell> cells = List.of(
+                Cell.of(randomKeyBuffer(), Value.present(randomValueBuffer(), 1)),
+                Cell.of(randomKeyBuffer(), Value.tombstone(2)));
+        final List<Cell> decoded = BatchCodec.decodeCells(BatchCodec.encodeCells(cells));
+        assertEquals(cells.size(), decoded.size());
+        for (int i = 0; i < cells.size(); i++) {
+            final Value expected = cells.get(i).getValue();
+            final Value actual = decoded.get(i).getValue();
+            assertEquals(cells.get(i).getKey(), decoded.get(i).getKey());
+            assertEquals(expected.isTombstone(), actual.isTombstone());
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+            assertEquals(expected.getData(), actual.getData());
+        }
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        final ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+}
@@ -0,0 +1,180 @@
+package ru.mail.polis.service.physhock;
+
+import one.nio.http.HttpClient;
+import one.nio.http.Response;
+import one.nio.net.ConnectionString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+import ru.mail.polis.service.Service;
+import ru.mail.polis.service.ServiceFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of batch endpoints in the cluster of two nodes.
+ */
+class BatchTest extends TestBase {
+
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final int NODES = 2;
+
+    private final List<File> data = new ArrayList<>();
+    private final List<DAO> daos = new ArrayList<>();
+    private final List<Service> services = new ArrayList<>();
+    private HttpClient client;
+
+    @BeforeEach
+    void start() throws Exception {
+        final Set<String> endpoints = new LinkedHashSet<>();
+        final List<Integer> ports = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            final int port = randomPort();
+            ports.add(port);
+            endpoints.add(endpoint(port));
+        }
+        for (final int port : ports) {
+            final File dir = Files.createTempDirectory();
+            data.add(dir);
+            final DAO dao = DAOFactory.create(dir);
+            daos.add(dao);
+            final Service service = ServiceFactory.create(port, dao, endpoints);
+            services.add(service);
+            service.start();
+        }
+        client = new HttpClient(new ConnectionString(endpoint(ports.get(0)) + "?timeout=" + TIMEOUT.toMillis() / 2));
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        client.close();
+        services.forEach(Service::stop);
+        for (final DAO dao : daos) {
+            dao.close();
+        }
+        for (final File dir : data) {
+            Files.recursiveDelete(dir);
+        }
+    }
+
+    @Test
+    void writeAndRead() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final Map<ByteBuffer, ByteBuffer> written = new HashMap<>();
+            for (int i = 0; i < 20; i++) {
+                written.put(randomKeyBuffer(), randomValueBuffer());
+            }
+            final ByteBuffer removed = randomKeyBuffer();
+            final Map<ByteBuffer, ByteBuffer> mutations = new HashMap<>(written);
+            mutations.put(removed, null);
+            assertEquals(201, write(mutations, "2/2").getStatus());
+
+            final List<ByteBuffer> keys = new ArrayList<>(mutations.keySet());
+            final Response response = read(keys, "2/2");
+            assertEquals(200, response.getStatus());
+            assertEquals(written, entries(response.getBody()));
+        });
+    }
+
+    @Test
+    void emptyKeyIsBadRequest() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final ByteBuffer empty = ByteBuffer.allocate(0);
+            assertEquals(400, read(List.of(randomKeyBuffer(), empty), null).getStatus());
+            assertEquals(400, write(Map.of(empty, randomValueBuffer()), null).getStatus());
+        });
+    }
+
+    @Test
+    void quorumWithoutUnavailableNode() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            services.remove(1).stop();
+            final ByteBuffer key = randomKeyBuffer();
+            final ByteBuffer value = randomValueBuffer();
+            assertEquals(201, write(Map.of(key, value), "1/2").getStatus());
+            assertEquals(504, write(Map.of(key, value), "2/2").getStatus());
+
+            final Response response = read(List.of(key), "1/2");
+            assertEquals(200, response.getStatus());
+            assertEquals(Map.of(key, value), entries(response.getBody()));
+            assertEquals(504, read(List.of(key), "2/2").getStatus());
+        });
+    }
+
+    @Test
+    void emptyBatch() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(201, write(Map.of(), null).getStatus());
+            final Response response = read(List.of(), null);
+            assertEquals(200, response.getStatus());
+            assertTrue(entries(response.getBody()).isEmpty());
+        });
+    }
+
+    private Response read(final List<ByteBuffer> keys, final String replicas) throws Exception {
+        return client.post(BatchCoordinator.GET_PATH + query(replicas), BatchCodec.encodeKeys(keys));
+    }
+
+    /**
+     * Method writes the batch, null values are removed.
+     */
+    private Response write(final Map<ByteBuffer, ByteBuffer> mutations, final String replicas) throws Exception {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(body)) {
+            for (final Map.Entry<ByteBuffer, ByteBuffer> mutation : mutations.entrySet()) {
+                final ByteBuffer value = mutation.getValue() == null ? ByteBuffer.allocate(0) : mutation.getValue();
+                output.writeByte(mutation.getValue() == null ? BatchCodec.REMOVE : BatchCodec.UPSERT);
+                writeBuffer(output, mutation.getKey());
+                writeBuffer(output, value);
+            }
+        }
+        return client.post(BatchCoordinator.WRITE_PATH + query(replicas), body.toByteArray());
+    }
+
+    private static void writeBuffer(final DataOutputStream output, final ByteBuffer buffer) throws IOException {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String query(final String replicas) {
+        return replicas == null ? "" : "?replicas=" + replicas;
+    }
+
+    private static Map<ByteBuffer, ByteBuffer> entries(final byte[] body) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final Map<ByteBuffer, ByteBuffer> entries = new HashMap<>();
+        while (buffer.hasRemaining()) {
+            final ByteBuffer key = slice(buffer);
+            entries.put(key, slice(buffer));
+        }
+        return entries;
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        final ByteBuffer slice = buffer.slice().limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+}
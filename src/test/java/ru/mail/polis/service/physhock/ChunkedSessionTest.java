@@ -0,0 +1,313 @@
+package ru.mail.polis.service.physhock;
+
+import one.nio.http.HttpClient;
+import one.nio.net.ConnectionString;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.Cell;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+import ru.mail.polis.dao.Value;
+import ru.mail.polis.service.Service;
+import ru.mail.polis.service.ServiceFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of ranges streamed by {@link ChunkedSession} as seen on the wire.
+ */
+class ChunkedSessionTest extends TestBase {
+
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final int MAX_CHUNK_PAYLOAD = 64 * 1024;
+    private static final int RECORDS = 5000;
+
+    private File data;
+    private DAO dao;
+    private RecordingDAO recording;
+    private int port;
+    private Service service;
+
+    @BeforeEach
+    void start() throws IOException {
+        data = Files.createTempDirectory();
+        dao = DAOFactory.create(data);
+        recording = new RecordingDAO(dao);
+        port = randomPort();
+        service = ServiceFactory.create(port, recording, Set.of(endpoint(port)));
+        service.start();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        service.stop();
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @Test
+    void recordsArePackedIntoChunks() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final byte[] expected = upsertAll();
+            final List<byte[]> chunks;
+            try (Socket socket = new Socket("localhost", port)) {
+                chunks = range(socket, 0);
+            }
+
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            for (final byte[] chunk : chunks) {
+                assertTrue(chunk.length <= MAX_CHUNK_PAYLOAD, "Chunk of " + chunk.length + " bytes");
+                body.write(chunk);
+            }
+            assertArrayEquals(expected, body.toByteArray());
+            assertTrue(chunks.size() <= expected.length / MAX_CHUNK_PAYLOAD + 2, chunks.size() + " chunks");
+        });
+    }
+
+    @Test
+    void rangeIsIteratedOffSelector() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final byte[] expected = upsertAll();
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (Socket socket = new Socket()) {
+                socket.setReceiveBufferSize(4096);
+                socket.connect(new InetSocketAddress("localhost", port));
+                for (final byte[] chunk : range(socket, 1)) {
+                    body.write(chunk);
+                }
+            }
+            assertArrayEquals(expected, body.toByteArray());
+
+            assertFalse(recording.threads.isEmpty());
+            for (final String thread : recording.threads) {
+                assertFalse(thread.startsWith("NIO Selector"), "Iterated on " + thread);
+            }
+        });
+    }
+
+    @Test
+    void pointRequestsAreServedWhileRangeStalls() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            upsertAll();
+            try (Socket stalled = new Socket("localhost", port)) {
+                request(stalled);
+                assertEquals("HTTP/1.1 200 OK", line(new DataInputStream(stalled.getInputStream())));
+
+                final HttpClient client = new HttpClient(new ConnectionString(endpoint(port)));
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        assertEquals(200, client.get("/v0/entity?id=" + String.format("key%05d", i)).getStatus());
+                    }
+                } finally {
+                    client.close();
+                }
+            }
+        });
+    }
+
+    @Test
+    void rangeIsClosedWhenOver() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            upsertAll();
+            for (int i = 0; i < 3; i++) {
+                try (Socket socket = new Socket("localhost", port)) {
+                    range(socket, 0);
+                }
+            }
+            awaitClosed(3);
+        });
+    }
+
+    @Test
+    void rangeIsClosedOnDisconnect() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            upsertAll();
+            try (Socket socket = new Socket()) {
+                socket.setReceiveBufferSize(4096);
+                socket.connect(new InetSocketAddress("localhost", port));
+                request(socket);
+                assertEquals("HTTP/1.1 200 OK", line(new DataInputStream(socket.getInputStream())));
+            }
+            awaitClosed(1);
+        });
+    }
+
+    /**
+     * Method waits until all ranges are closed, the range is closed by the session after the last chunk.
+     */
+    private void awaitClosed(final int ranges) throws InterruptedException {
+        while (recording.closed.get() < ranges) {
+            Thread.sleep(10);
+        }
+        assertEquals(ranges, recording.opened.get());
+        assertEquals(ranges, recording.closed.get());
+    }
+
+    /**
+     * Method upserts records and returns the body of their range.
+     */
+    private byte[] upsertAll() throws IOException {
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < RECORDS; i++) {
+            final byte[] key = String.format("key%05d", i).getBytes(StandardCharsets.UTF_8);
+            final byte[] value = randomValue();
+            dao.upsert(ByteBuffer.wrap(key), ByteBuffer.wrap(value));
+            expected.write(key);
+            expected.write('\n');
+            expected.write(value);
+        }
+        return expected.toByteArray();
+    }
+
+    private static void request(final Socket socket) throws IOException {
+        socket.getOutputStream().write(("GET /v0/entities?start=key&end=kez HTTP/1.1\r\n"
+                + "Host: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Method requests the range of all records and reads payloads of its chunks.
+     *
+     * @param socket connected socket
+     * @param pause  pause after each chunk in milliseconds, so the server waits for the socket
+     * @return payloads of chunks
+     */
+    private static List<byte[]> range(final Socket socket, final long pause) throws IOException, InterruptedException {
+        request(socket);
+        final DataInputStream input = new DataInputStream(socket.getInputStream());
+        assertEquals("HTTP/1.1 200 OK", line(input));
+        boolean chunked = false;
+        for (String header = line(input); !header.isEmpty(); header = line(input)) {
+            chunked |= header.equalsIgnoreCase("Transfer-Encoding: chunked");
+        }
+        assertTrue(chunked);
+
+        final List<byte[]> chunks = new ArrayList<>();
+        for (int size = Integer.parseInt(line(input), 16); size > 0; size = Integer.parseInt(line(input), 16)) {
+            final byte[] chunk = new byte[size];
+            input.readFully(chunk);
+            assertEquals("", line(input));
+            chunks.add(chunk);
+            Thread.sleep(pause);
+        }
+        assertEquals("", line(input));
+        return chunks;
+    }
+
+    private static String line(final DataInputStream input) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        for (int next = input.read(); next != '\n'; next = input.read()) {
+            if (next < 0) {
+                throw new IOException("Stream is over");
+            }
+            if (next != '\r') {
+                line.append((char) next);
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Storage which records threads iterating over its ranges and closed ranges.
+     */
+    private static final class RecordingDAO implements DAO {
+        private final DAO delegate;
+        private final Set<String> threads = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger opened = new AtomicInteger();
+        private final AtomicInteger closed = new AtomicInteger();
+
+        RecordingDAO(final DAO delegate) {
+            this.delegate = delegate;
+        }
+
+        @NotNull
+        @Override
+        public Iterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+            return delegate.iterator(from);
+        }
+
+        @NotNull
+        @Override
+        public CloseableIterator<Cell> cellRange(@NotNull final ByteBuffer from,
+                                                 @Nullable final ByteBuffer to) throws IOException {
+            final CloseableIterator<Cell> cells = delegate.cellRange(from, to);
+            opened.incrementAndGet();
+            final Iterator<Cell> recorded = new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    threads.add(Thread.currentThread().getName());
+                    return cells.hasNext();
+                }
+
+                @Override
+                public Cell next() {
+                    threads.add(Thread.currentThread().getName());
+                    return cells.next();
+                }
+            };
+            return CloseableIterator.of(recorded, () -> {
+                closed.incrementAndGet();
+                cells.close();
+            });
+        }
+
+        @NotNull
+        @Override
+        public Value getValue(@NotNull final ByteBuffer key) throws IOException {
+            return delegate.getValue(key);
+        }
+
+        @Override
+        public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
+            delegate.upsert(key, value);
+        }
+
+        @Override
+        public void upsert(@NotNull final ByteBuffer key,
+                           @NotNull final ByteBuffer value,
+                           final long timestamp) throws IOException {
+            delegate.upsert(key, value, timestamp);
+        }
+
+        @Override
+        public void remove(@NotNull final ByteBuffer key) throws IOException {
+            delegate.remove(key);
+        }
+
+        @Override
+        public void remove(@NotNull final ByteBuffer key, final long timestamp) throws IOException {
+            delegate.remove(key, timestamp);
+        }
+
+        @Override
+        public void close() {
+            // The storage is closed by the test
+        }
+    }
+}
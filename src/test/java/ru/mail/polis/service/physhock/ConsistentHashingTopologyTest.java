@@ -0,0 +1,89 @@
+package ru.mail.polis.service.physhock;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the ring of {@link ConsistentHashingTopology}.
+ */
+class ConsistentHashingTopologyTest extends TestBase {
+
+    private static final int VNODES = 128;
+    private static final int KEYS = 20_000;
+    private static final int PORT = 8080;
+
+    @Test
+    void addedNodeTakesItsShareOnly() {
+        final Set<String> nodes = nodes(4);
+        final Topology<String> before = new ConsistentHashingTopology(endpoint(PORT), nodes, VNODES);
+        final String added = endpoint(PORT + 4);
+        nodes.add(added);
+        final Topology<String> after = new ConsistentHashingTopology(endpoint(PORT), nodes, VNODES);
+
+        int moved = 0;
+        for (final ByteBuffer key : keys()) {
+            final String owner = after.calculateFor(key);
+            if (!owner.equals(before.calculateFor(key))) {
+                assertEquals(added, owner);
+                moved++;
+            }
+        }
+        final double share = (double) moved / KEYS;
+        assertTrue(share > 0.1 && share < 0.3, "Moved share " + share);
+    }
+
+    @Test
+    void keysAreSpreadEvenly() {
+        final Set<String> nodes = nodes(5);
+        final Topology<String> topology = new ConsistentHashingTopology(endpoint(PORT), nodes, VNODES);
+        final Map<String, Integer> owned = new HashMap<>();
+        for (final ByteBuffer key : keys()) {
+            owned.merge(topology.calculateFor(key), 1, Integer::sum);
+        }
+        assertEquals(nodes, owned.keySet());
+        for (final int count : owned.values()) {
+            assertTrue(count > KEYS / nodes.size() / 2 && count < KEYS / nodes.size() * 2, "Owned " + count);
+        }
+    }
+
+    @Test
+    void replicasAreDistinctAndStartWithOwner() {
+        final Set<String> nodes = nodes(5);
+        final Topology<String> topology = new ConsistentHashingTopology(endpoint(PORT), nodes, VNODES);
+        for (final ByteBuffer key : keys().subList(0, 100)) {
+            final List<String> replicas = topology.replicasFor(key, nodes.size());
+            assertEquals(nodes, new LinkedHashSet<>(replicas));
+            assertEquals(topology.calculateFor(key), replicas.get(0));
+            assertEquals(replicas.subList(0, 2), topology.replicasFor(key, 2));
+        }
+        assertThrows(IllegalArgumentException.class, () -> topology.replicasFor(randomKeyBuffer(), nodes.size() + 1));
+    }
+
+    private static Set<String> nodes(final int count) {
+        final Set<String> nodes = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            nodes.add(endpoint(PORT + i));
+        }
+        return nodes;
+    }
+
+    private static List<ByteBuffer> keys() {
+        final List<ByteBuffer> keys = new ArrayList<>(KEYS);
+        for (int i = 0; i < KEYS; i++) {
+            keys.add(randomKeyBuffer());
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,79 @@
+package ru.mail.polis.service.physhock;
+
+import one.nio.http.Response;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests of merging replicas answers by the coordinator.
+ */
+class MergeResponsesTest extends TestBase {
+
+    @Test
+    void newestValueWins() {
+        final byte[] older = randomValue();
+        final byte[] newer = randomValue();
+        final Response merged = merge(value(older, 1), value(newer, 2), absent());
+
+        assertEquals(200, merged.getStatus());
+        assertArrayEquals(newer, merged.getBody());
+    }
+
+    @Test
+    void tombstoneWinsTie() {
+        assertEquals(404, merge(value(randomValue(), 5), tombstone(5)).getStatus());
+    }
+
+    @Test
+    void olderTombstoneLoses() {
+        final byte[] value = randomValue();
+        final Response merged = merge(tombstone(1), value(value, 2));
+
+        assertEquals(200, merged.getStatus());
+        assertArrayEquals(value, merged.getBody());
+    }
+
+    @Test
+    void absentEverywhere() {
+        assertEquals(404, merge(absent(), absent()).getStatus());
+    }
+
+    @Test
+    void malformedTimestampIsIgnored() {
+        final byte[] value = randomValue();
+        final Response malformed = new Response(Response.OK, randomValue());
+        malformed.addHeader(ServiceImpl.TIMESTAMP + "yesterday");
+        final Response merged = merge(malformed, value(value, 1));
+
+        assertEquals(200, merged.getStatus());
+        assertArrayEquals(value, merged.getBody());
+        assertEquals(404, merge(malformed, absent()).getStatus());
+    }
+
+    private static Response merge(final Response... responses) {
+        final List<Response> list = Arrays.asList(responses);
+        return ServiceImpl.mergeResponses(list);
+    }
+
+    private static Response value(final byte[] body, final long timestamp) {
+        final Response response = new Response(Response.OK, body);
+        response.addHeader(ServiceImpl.TIMESTAMP + timestamp);
+        return response;
+    }
+
+    private static Response tombstone(final long timestamp) {
+        final Response response = new Response(Response.NOT_FOUND, Response.EMPTY);
+        response.addHeader(ServiceImpl.TIMESTAMP + timestamp);
+        return response;
+    }
+
+    private static Response absent() {
+        return new Response(Response.NOT_FOUND, Response.EMPTY);
+    }
+}
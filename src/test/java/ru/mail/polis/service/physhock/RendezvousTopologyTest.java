@@ -0,0 +1,110 @@
+package ru.mail.polis.service.physhock;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link RendezvousTopology}.
+ */
+class RendezvousTopologyTest extends TestBase {
+
+    private static final int KEYS = 20_000;
+    private static final int PORT = 8080;
+
+    @Test
+    void smallerReplicasArePrefix() {
+        final Set<String> nodes = nodes(5);
+        final Topology<String> topology = new RendezvousTopology(endpoint(PORT), nodes);
+        for (final ByteBuffer key : keys().subList(0, 1000)) {
+            final List<String> all = topology.replicasFor(key, nodes.size());
+            assertEquals(nodes, new LinkedHashSet<>(all));
+            assertEquals(topology.calculateFor(key), all.get(0));
+            for (int count = 1; count < nodes.size(); count++) {
+                assertEquals(all.subList(0, count), topology.replicasFor(key, count));
+                assertEquals(all.get(count), topology.findNextNode(key, count));
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> topology.replicasFor(randomKeyBuffer(), nodes.size() + 1));
+    }
+
+    @Test
+    void replicasAreSharedByKeys() {
+        final Topology<String> topology = new RendezvousTopology(endpoint(PORT), nodes(3));
+        final ByteBuffer key = randomKeyBuffer();
+        final List<String> replicas = topology.replicasFor(key, 2);
+        assertSame(replicas, topology.replicasFor(key.duplicate(), 2));
+        assertThrows(UnsupportedOperationException.class, () -> replicas.add(endpoint(PORT)));
+    }
+
+    @Test
+    void keysAreSpreadEvenly() {
+        final Set<String> nodes = nodes(5);
+        final Topology<String> topology = new RendezvousTopology(endpoint(PORT), nodes);
+        final Map<String, Integer> owned = new HashMap<>();
+        final Map<String, Integer> second = new HashMap<>();
+        for (final ByteBuffer key : keys()) {
+            final List<String> replicas = topology.replicasFor(key, 2);
+            owned.merge(replicas.get(0), 1, Integer::sum);
+            second.merge(replicas.get(1), 1, Integer::sum);
+        }
+        assertSpread(nodes, owned);
+        assertSpread(nodes, second);
+    }
+
+    @Test
+    void addedNodeTakesItsShareOnly() {
+        final Set<String> nodes = nodes(4);
+        final Topology<String> before = new RendezvousTopology(endpoint(PORT), nodes);
+        final String added = endpoint(PORT + 4);
+        nodes.add(added);
+        final Topology<String> after = new RendezvousTopology(endpoint(PORT), nodes);
+
+        int moved = 0;
+        for (final ByteBuffer key : keys()) {
+            final String owner = after.calculateFor(key);
+            if (!owner.equals(before.calculateFor(key))) {
+                assertEquals(added, owner);
+                moved++;
+            }
+        }
+        final double share = (double) moved / KEYS;
+        assertTrue(share > 0.15 && share < 0.25, "Moved share " + share);
+    }
+
+    private static void assertSpread(final Set<String> nodes, final Map<String, Integer> owned) {
+        assertEquals(nodes, owned.keySet());
+        final int expected = KEYS / nodes.size();
+        for (final int count : owned.values()) {
+            assertTrue(Math.abs(count - expected) < expected / 5, "Owned " + count);
+        }
+    }
+
+    private static Set<String> nodes(final int count) {
+        final Set<String> nodes = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            nodes.add(endpoint(PORT + i));
+        }
+        return nodes;
+    }
+
+    private static List<ByteBuffer> keys() {
+        final List<ByteBuffer> keys = new ArrayList<>(KEYS);
+        for (int i = 0; i < KEYS; i++) {
+            keys.add(randomKeyBuffer());
+        }
+        return keys;
+    }
+}
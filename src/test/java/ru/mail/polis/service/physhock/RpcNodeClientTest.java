@@ -0,0 +1,98 @@
+package ru.mail.polis.service.physhock;
+
+import one.nio.http.Request;
+import one.nio.http.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Tests of {@link RpcNodeClient} talking to the peer.
+ */
+class RpcNodeClientTest extends TestBase {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(2);
+
+    private final String me = endpoint(randomPort());
+    private final int peerPort = randomPort();
+    private final String peer = endpoint(peerPort);
+    private final RpcNodeClient client = new RpcNodeClient(
+            new RendezvousTopology(me, Set.of(me, peer)), 0, Runnable::run, TIMEOUT);
+    private RpcServer server;
+
+    @AfterEach
+    void stop() {
+        client.close();
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    void answers() throws Exception {
+        server = new RpcServer(peerPort, (method, key, body, timestamp, durability) -> {
+            final Response response = new Response(Response.CREATED, body);
+            response.addHeader(ServiceImpl.TIMESTAMP + timestamp);
+            return response;
+        }, Runnable::run);
+        server.start();
+
+        final byte[] value = randomValue();
+        final Response response = client.send(peer, put(value, 42)).get();
+        assertEquals(201, response.getStatus());
+        assertArrayEquals(value, response.getBody());
+        assertEquals("42", response.getHeader(ServiceImpl.TIMESTAMP));
+    }
+
+    @Test
+    void sendDoesNotBlockOnStalledPeer() throws Exception {
+        try (ServerSocket stalled = new ServerSocket(peerPort)) {
+            final List<Socket> accepted = new ArrayList<>();
+            final Thread acceptor = new Thread(() -> {
+                try {
+                    accepted.add(stalled.accept());
+                } catch (IOException e) {
+                    // The peer is stopped
+                }
+            });
+            acceptor.start();
+
+            final byte[] value = new byte[1024 * 1024];
+            final List<CompletableFuture<Response>> responses = new ArrayList<>();
+            assertTimeoutPreemptively(TIMEOUT, () -> {
+                for (int i = 0; i < 64; i++) {
+                    responses.add(client.send(peer, put(value, i)));
+                }
+            });
+            for (final CompletableFuture<Response> response : responses) {
+                assertThrows(ExecutionException.class, response::get);
+            }
+            acceptor.join();
+            for (final Socket socket : accepted) {
+                socket.close();
+            }
+        }
+    }
+
+    private static Request put(final byte[] value, final long timestamp) {
+        final Request request = new Request(Request.METHOD_PUT, "/v0/entity?id=key", true);
+        request.addHeader(ServiceImpl.TIMESTAMP + timestamp);
+        request.setBody(value);
+        return request;
+    }
+}
@@ -0,0 +1,87 @@
+package ru.mail.polis.service.physhock;
+
+import one.nio.http.Request;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.Durability;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests of frames of {@link RpcProtocol}.
+ */
+class RpcProtocolTest extends TestBase {
+
+    @Test
+    void opcodeKeepsMethodAndDurability() {
+        for (final int method : new int[]{Request.METHOD_GET, Request.METHOD_PUT, Request.METHOD_DELETE}) {
+            for (final Durability durability : Durability.values()) {
+                final byte opcode = RpcProtocol.opcode(method, durability);
+                assertEquals(method, RpcProtocol.method(opcode));
+                assertEquals(durability, RpcProtocol.durability(opcode));
+            }
+        }
+    }
+
+    @Test
+    void unknownOpcodeIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> RpcProtocol.opcode(Request.METHOD_POST, Durability.ASYNC));
+        assertThrows(IllegalArgumentException.class, () -> RpcProtocol.method((byte) 0));
+        assertThrows(IllegalArgumentException.class, () -> RpcProtocol.method((byte) 0x0F));
+        assertThrows(IllegalArgumentException.class, () -> RpcProtocol.durability((byte) 0xF1));
+    }
+
+    @Test
+    void requestFrame() {
+        final byte[] key = randomValue();
+        final byte[] value = randomValue();
+        final byte opcode = RpcProtocol.opcode(Request.METHOD_PUT, Durability.SYNC);
+        final ByteBuffer frame = RpcProtocol.request(opcode, 42, 43, key, value);
+
+        assertEquals(RpcProtocol.LENGTH_SIZE + RpcProtocol.REQUEST_HEADER_SIZE + key.length + value.length,
+                frame.remaining());
+        assertEquals(frame.remaining() - RpcProtocol.LENGTH_SIZE, frame.getInt());
+        assertEquals(opcode, frame.get());
+        assertEquals(42, frame.getLong());
+        assertEquals(43, frame.getLong());
+        assertArrayEquals(key, bytes(frame, frame.getInt()));
+        assertArrayEquals(value, bytes(frame, frame.remaining()));
+    }
+
+    @Test
+    void responseFrame() {
+        final byte[] value = randomValue();
+        final ByteBuffer frame = ByteBuffer.wrap(RpcProtocol.response(42, 201, RpcProtocol.NO_TIMESTAMP, value));
+
+        assertEquals(RpcProtocol.LENGTH_SIZE + RpcProtocol.RESPONSE_HEADER_SIZE + value.length, frame.remaining());
+        assertEquals(frame.remaining() - RpcProtocol.LENGTH_SIZE, frame.getInt());
+        assertEquals(42, frame.getLong());
+        assertEquals(201, frame.getInt());
+        assertEquals(RpcProtocol.NO_TIMESTAMP, frame.getLong());
+        assertArrayEquals(value, bytes(frame, frame.remaining()));
+        assertFalse(frame.hasRemaining());
+    }
+
+    @Test
+    void wrongLengthIsRejected() {
+        RpcProtocol.checkLength(RpcProtocol.REQUEST_HEADER_SIZE, RpcProtocol.REQUEST_HEADER_SIZE);
+        RpcProtocol.checkLength(RpcProtocol.MAX_FRAME_SIZE, RpcProtocol.REQUEST_HEADER_SIZE);
+        assertThrows(IllegalStateException.class,
+                () -> RpcProtocol.checkLength(RpcProtocol.REQUEST_HEADER_SIZE - 1, RpcProtocol.REQUEST_HEADER_SIZE));
+        assertThrows(IllegalStateException.class,
+                () -> RpcProtocol.checkLength(RpcProtocol.MAX_FRAME_SIZE + 1, RpcProtocol.REQUEST_HEADER_SIZE));
+        assertThrows(IllegalStateException.class,
+                () -> RpcProtocol.checkLength(-1, RpcProtocol.RESPONSE_HEADER_SIZE));
+    }
+
+    private static byte[] bytes(final ByteBuffer buffer, final int length) {
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,93 @@
+package ru.mail.polis.service.physhock;
+
+import one.nio.http.Request;
+import one.nio.http.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.Durability;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests of {@link RpcServer} answering every request, even the malformed or failed one.
+ */
+class RpcServerTest extends TestBase {
+
+    private static final byte[] FAILING = "failing".getBytes(StandardCharsets.UTF_8);
+
+    private int port;
+    private RpcServer server;
+
+    @BeforeEach
+    void start() throws IOException {
+        port = randomPort();
+        server = new RpcServer(port, (method, key, body, timestamp, durability) -> {
+            if (key.equals(ByteBuffer.wrap(FAILING))) {
+                throw new IllegalStateException("Handler failed");
+            }
+            return new Response(Response.OK, body);
+        }, Runnable::run);
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop();
+    }
+
+    @Test
+    void answers() throws IOException {
+        final byte[] value = randomValue();
+        try (Socket socket = new Socket("localhost", port)) {
+            send(socket, RpcProtocol.opcode(Request.METHOD_PUT, Durability.SYNC), 1, randomValue(), value);
+            final DataInputStream input = new DataInputStream(socket.getInputStream());
+            assertEquals(200, status(input, 1));
+        }
+    }
+
+    @Test
+    void unknownOpcodeIsBadRequest() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            send(socket, (byte) 0xFF, 2, randomValue(), randomValue());
+            final DataInputStream input = new DataInputStream(socket.getInputStream());
+            assertEquals(400, status(input, 2));
+        }
+    }
+
+    @Test
+    void failedHandlerIsServerError() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            send(socket, RpcProtocol.opcode(Request.METHOD_GET, Durability.ASYNC), 3, FAILING, new byte[0]);
+            final DataInputStream input = new DataInputStream(socket.getInputStream());
+            assertEquals(500, status(input, 3));
+            send(socket, RpcProtocol.opcode(Request.METHOD_GET, Durability.ASYNC), 4, randomValue(), new byte[0]);
+            assertEquals(200, status(input, 4));
+        }
+    }
+
+    private static void send(final Socket socket,
+                             final byte opcode,
+                             final long requestId,
+                             final byte[] key,
+                             final byte[] value) throws IOException {
+        final ByteBuffer frame = RpcProtocol.request(opcode, requestId, System.currentTimeMillis(), key, value);
+        socket.getOutputStream().write(frame.array(), frame.position(), frame.remaining());
+    }
+
+    private static int status(final DataInputStream input, final long requestId) throws IOException {
+        final int length = input.readInt();
+        assertEquals(requestId, input.readLong());
+        final int status = input.readInt();
+        input.readLong();
+        input.readFully(new byte[length - RpcProtocol.RESPONSE_HEADER_SIZE]);
+        return status;
+    }
+}
@@ -0,0 +1,45 @@
+package ru.mail.polis.service.physhock;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.Durability;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of counters of local writes by {@link Durability}.
+ */
+class WriteStatsTest extends TestBase {
+
+    @Test
+    void emptyReport() {
+        final Map<String, Long> report = new WriteStats().report();
+        assertEquals(Durability.values().length * 2, report.size());
+        for (final Durability durability : Durability.values()) {
+            assertEquals(0, report.get(durability.getName() + ".count"));
+            assertEquals(0, report.get(durability.getName() + ".micros"));
+        }
+    }
+
+    @Test
+    void writesAreCountedByDurability() {
+        final WriteStats stats = new WriteStats();
+        final long started = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(10);
+        stats.record(Durability.SYNC, started);
+        stats.record(Durability.SYNC, started);
+        stats.record(Durability.NONE, System.nanoTime());
+
+        final Map<String, Long> report = stats.report();
+        assertEquals(2, report.get("sync.count"));
+        assertTrue(report.get("sync.micros") >= TimeUnit.MILLISECONDS.toMicros(10));
+        assertEquals(0, report.get("async.count"));
+        assertEquals(1, report.get("none.count"));
+        assertEquals(List.of("sync.count", "sync.micros", "async.count", "async.micros", "none.count", "none.micros"),
+                List.copyOf(report.keySet()));
+    }
+}